@@ -0,0 +1,103 @@
+// Copyright (c) 2020 Facebook, Inc. and its affiliates.
+// All rights reserved.
+//
+// This source code is licensed under the BSD-style license found in the
+// LICENSE file in the root directory of this source tree.
+
+package org.pytorch.demo.objectdetection;
+
+import android.graphics.Rect;
+
+import org.pytorch.IValue;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ Turns the boxes, scores and labels tensors of a D2Go model into results in a single pass.
+
+ Each tensor is read once and detections are gated by score, capped to the highest scoring
+ ones and mapped to view coordinates straight from those arrays, without packing survivors into
+ an intermediate array first. The score threshold and the cap can be changed at any time and
+ apply from the next frame. The scratch arrays are reused, so an instance should only be used
+ from one thread.
+ */
+class D2GoOutputAdapter {
+    private volatile float mScoreThreshold;
+    private volatile int mMaxDetections;
+
+    // scores and output rows of the detections above the threshold
+    private float[] mKeptScores = new float[0];
+    private int[] mKeptRows = new int[0];
+    private int[] mOrder = new int[0];
+
+    D2GoOutputAdapter(float scoreThreshold, int maxDetections) {
+        mScoreThreshold = scoreThreshold;
+        mMaxDetections = maxDetections;
+    }
+
+    void setScoreThreshold(float scoreThreshold) {
+        mScoreThreshold = scoreThreshold;
+    }
+
+    void setMaxDetections(int maxDetections) {
+        mMaxDetections = maxDetections;
+    }
+
+    /**
+     Returns the detections of one image, highest scores first when more than the cap pass the
+     threshold and in model output order otherwise. Boxes are mapped from the model input to the
+     view by the transform the input was made with.
+     */
+    ArrayList<Result> toResults(Map<String, IValue> outputs, InputTransform transform) {
+        final ArrayList<Result> results = new ArrayList<>();
+        if (!outputs.containsKey("boxes")) {
+            return results;
+        }
+        final float[] scores = outputs.get("scores").toTensor().getDataAsFloatArray();
+        final int n = scores.length;
+        if (mKeptScores.length < n) {
+            mKeptScores = new float[n];
+            mKeptRows = new int[n];
+            mOrder = new int[n];
+        }
+
+        final float threshold = mScoreThreshold;
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            if (scores[i] >= threshold) {
+                mKeptScores[kept] = scores[i];
+                mKeptRows[kept] = i;
+                kept++;
+            }
+        }
+        if (kept == 0) {
+            return results;
+        }
+
+        final int maxDetections = mMaxDetections;
+        final int count;
+        if (kept > maxDetections) {
+            count = TopK.topK(mKeptScores, kept, maxDetections, mOrder);
+        } else {
+            count = kept;
+            for (int i = 0; i < kept; i++) {
+                mOrder[i] = i;
+            }
+        }
+
+        // only read when something passed the threshold
+        final float[] boxes = outputs.get("boxes").toTensor().getDataAsFloatArray();
+        final long[] labels = outputs.get("labels").toTensor().getDataAsLongArray();
+        results.ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            final int row = mKeptRows[mOrder[i]];
+            final Rect rect = new Rect(
+                    (int)transform.toViewX(boxes[4 * row]), (int)transform.toViewY(boxes[4 * row + 1]),
+                    (int)transform.toViewX(boxes[4 * row + 2]), (int)transform.toViewY(boxes[4 * row + 3]));
+            // model labels are 1-based, 0 is the background class
+            results.add(new Result((int)labels[row] - 1, scores[row], rect));
+        }
+        return results;
+    }
+}
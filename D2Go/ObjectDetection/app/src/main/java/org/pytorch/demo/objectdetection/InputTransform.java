@@ -0,0 +1,127 @@
+// Copyright (c) 2020 Facebook, Inc. and its affiliates.
+// All rights reserved.
+//
+// This source code is licensed under the BSD-style license found in the
+// LICENSE file in the root directory of this source tree.
+
+package org.pytorch.demo.objectdetection;
+
+/**
+ The geometry between an image, the model input made from it and the view the detections are
+ drawn on. configure() picks the model input size for an image according to the mode, and
+ toViewX()/toViewY() map box coordinates of the model output, which are in input pixels, back
+ through the input scaling and padding to the image and then to the view.
+
+ The scale and padding are the same as the ones YuvTensorConverter computes for the scale mode
+ returned by getConverterScaleMode(), so the two agree on where the image is in the input.
+ */
+class InputTransform {
+    enum Mode {
+        // the input has the size of the image, so inference cost follows the camera resolution
+        NATIVE,
+        // the image is scaled to fit a targetSize square, keeping its aspect ratio, and padded
+        LETTERBOX,
+        // the image is scaled so its short side is targetSize, keeping its aspect ratio
+        SHORT_SIDE,
+        // each axis is scaled to targetSize independently
+        STRETCH
+    }
+
+    private final Mode mMode;
+    private final int mTargetSize;
+
+    private int mImageWidth = -1;
+    private int mImageHeight = -1;
+    private int mInputWidth, mInputHeight;
+    // input pixels per image pixel, and the input position of the image's top left corner
+    private float mScaleX, mScaleY, mPadX, mPadY;
+    // view pixels per image pixel, and the view position of the image's top left corner
+    private float mViewScaleX = 1, mViewScaleY = 1, mViewStartX, mViewStartY;
+
+    InputTransform(Mode mode, int targetSize) {
+        mMode = mode;
+        mTargetSize = targetSize;
+    }
+
+    /**
+     Sizes the model input for an image of the given size and returns true if the input size
+     changed.
+     */
+    boolean configure(int imageWidth, int imageHeight) {
+        if (imageWidth == mImageWidth && imageHeight == mImageHeight) {
+            return false;
+        }
+        mImageWidth = imageWidth;
+        mImageHeight = imageHeight;
+        final int oldInputWidth = mInputWidth;
+        final int oldInputHeight = mInputHeight;
+
+        switch (mMode) {
+            case NATIVE:
+                mInputWidth = imageWidth;
+                mInputHeight = imageHeight;
+                break;
+            case SHORT_SIDE: {
+                final float scale = (float)mTargetSize / Math.min(imageWidth, imageHeight);
+                mInputWidth = Math.max(1, Math.round(imageWidth * scale));
+                mInputHeight = Math.max(1, Math.round(imageHeight * scale));
+                break;
+            }
+            default:
+                mInputWidth = mTargetSize;
+                mInputHeight = mTargetSize;
+                break;
+        }
+
+        final float fitX = (float)mInputWidth / imageWidth;
+        final float fitY = (float)mInputHeight / imageHeight;
+        if (mMode == Mode.LETTERBOX) {
+            mScaleX = mScaleY = Math.min(fitX, fitY);
+        } else {
+            // the rounded input size of SHORT_SIDE can make the two axes differ slightly
+            mScaleX = fitX;
+            mScaleY = fitY;
+        }
+        mPadX = (mInputWidth - imageWidth * mScaleX) / 2;
+        mPadY = (mInputHeight - imageHeight * mScaleY) / 2;
+        return mInputWidth != oldInputWidth || mInputHeight != oldInputHeight;
+    }
+
+    /**
+     Sets how the image is shown: view position = start + scale * image position.
+     */
+    void setView(float scaleX, float scaleY, float startX, float startY) {
+        mViewScaleX = scaleX;
+        mViewScaleY = scaleY;
+        mViewStartX = startX;
+        mViewStartY = startY;
+    }
+
+    YuvTensorConverter.ScaleMode getConverterScaleMode() {
+        return mMode == Mode.LETTERBOX ? YuvTensorConverter.ScaleMode.LETTERBOX : YuvTensorConverter.ScaleMode.STRETCH;
+    }
+
+    int getInputWidth() {
+        return mInputWidth;
+    }
+
+    int getInputHeight() {
+        return mInputHeight;
+    }
+
+    int getImageWidth() {
+        return mImageWidth;
+    }
+
+    int getImageHeight() {
+        return mImageHeight;
+    }
+
+    float toViewX(float inputX) {
+        return mViewStartX + mViewScaleX * (inputX - mPadX) / mScaleX;
+    }
+
+    float toViewY(float inputY) {
+        return mViewStartY + mViewScaleY * (inputY - mPadY) / mScaleY;
+    }
+}
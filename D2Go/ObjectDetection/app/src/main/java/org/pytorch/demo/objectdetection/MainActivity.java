@@ -34,7 +34,6 @@ import com.facebook.soloader.nativeloader.SystemDelegate;
 
 import org.pytorch.IValue;
 import org.pytorch.Module;
-import org.pytorch.PyTorchAndroid;
 import org.pytorch.Tensor;
 import org.pytorch.torchvision.TensorImageUtils;
 
@@ -66,8 +65,12 @@ static {
     private Button mButtonDetect;
     private ProgressBar mProgressBar;
     private Bitmap mBitmap = null;
-    private Module mModule = null;
-    private float mImgScaleX, mImgScaleY, mIvScaleX, mIvScaleY, mStartX, mStartY;
+    private volatile Module mModule = null;
+    // photos are stretched to the model input size
+    private final InputTransform mTransform =
+            new InputTransform(InputTransform.Mode.STRETCH, PrePostProcessor.INPUT_WIDTH);
+    private final D2GoOutputAdapter mOutputAdapter =
+            new D2GoOutputAdapter(PrePostProcessor.PHOTO_SCORE_THRESHOLD, PrePostProcessor.MAX_DETECTIONS);
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -159,14 +162,14 @@ static {
                 mProgressBar.setVisibility(ProgressBar.VISIBLE);
                 mButtonDetect.setText(getString(R.string.run_model));
 
-                mImgScaleX = (float)mBitmap.getWidth() / PrePostProcessor.INPUT_WIDTH;
-                mImgScaleY = (float)mBitmap.getHeight() / PrePostProcessor.INPUT_HEIGHT;
+                mTransform.configure(mBitmap.getWidth(), mBitmap.getHeight());
 
-                mIvScaleX = (mBitmap.getWidth() > mBitmap.getHeight() ? (float)mImageView.getWidth() / mBitmap.getWidth() : (float)mImageView.getHeight() / mBitmap.getHeight());
-                mIvScaleY  = (mBitmap.getHeight() > mBitmap.getWidth() ? (float)mImageView.getHeight() / mBitmap.getHeight() : (float)mImageView.getWidth() / mBitmap.getWidth());
+                float ivScaleX = (mBitmap.getWidth() > mBitmap.getHeight() ? (float)mImageView.getWidth() / mBitmap.getWidth() : (float)mImageView.getHeight() / mBitmap.getHeight());
+                float ivScaleY  = (mBitmap.getHeight() > mBitmap.getWidth() ? (float)mImageView.getHeight() / mBitmap.getHeight() : (float)mImageView.getWidth() / mBitmap.getWidth());
 
-                mStartX = (mImageView.getWidth() - mIvScaleX * mBitmap.getWidth())/2;
-                mStartY = (mImageView.getHeight() -  mIvScaleY * mBitmap.getHeight())/2;
+                float startX = (mImageView.getWidth() - ivScaleX * mBitmap.getWidth())/2;
+                float startY = (mImageView.getHeight() -  ivScaleY * mBitmap.getHeight())/2;
+                mTransform.setView(ivScaleX, ivScaleY, startX, startY);
 
                 Thread thread = new Thread(MainActivity.this);
                 thread.start();
@@ -174,7 +177,10 @@ static {
         });
 
         try {
-            mModule = PyTorchAndroid.loadModuleFromAsset(getAssets(), "d2go.pt");
+            // load the model and run it once in the background, the camera activity shares the instance
+            ModuleRegistry.getInstance(this).warmUp(this, PrePostProcessor.MODULE_ASSET_NAME,
+                    IValue.listFrom(Tensor.fromBlob(new float[3 * PrePostProcessor.INPUT_WIDTH * PrePostProcessor.INPUT_HEIGHT],
+                            new long[]{3, PrePostProcessor.INPUT_HEIGHT, PrePostProcessor.INPUT_WIDTH})));
 
             BufferedReader br = new BufferedReader(new InputStreamReader(getAssets().open("classes.txt")));
             String line;
@@ -229,9 +235,21 @@ static {
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mModule != null) {
+            ModuleRegistry.getInstance(this).release(PrePostProcessor.MODULE_ASSET_NAME);
+            mModule = null;
+        }
+    }
+
     @Override
     public void run() {
-        Bitmap resizedBitmap = Bitmap.createScaledBitmap(mBitmap, PrePostProcessor.INPUT_WIDTH, PrePostProcessor.INPUT_HEIGHT, true);
+        if (mModule == null) {
+            mModule = ModuleRegistry.getInstance(this).acquire(this, PrePostProcessor.MODULE_ASSET_NAME);
+        }
+        Bitmap resizedBitmap = Bitmap.createScaledBitmap(mBitmap, mTransform.getInputWidth(), mTransform.getInputHeight(), true);
 
         final FloatBuffer floatBuffer = Tensor.allocateFloatBuffer(3 * resizedBitmap.getWidth() * resizedBitmap.getHeight());
         TensorImageUtils.bitmapToFloatBuffer(resizedBitmap, 0,0,resizedBitmap.getWidth(),resizedBitmap.getHeight(), PrePostProcessor.NO_MEAN_RGB, PrePostProcessor.NO_STD_RGB, floatBuffer, 0);
@@ -243,43 +261,15 @@ static {
         Log.d("D2Go",  "inference time (ms): " + inferenceTime);
 
         final Map<String, IValue> map = outputTuple[1].toList()[0].toDictStringKey();
-        float[] boxesData = new float[]{};
-        float[] scoresData = new float[]{};
-        long[] labelsData = new long[]{};
-        if (map.containsKey("boxes")) {
-            final Tensor boxesTensor = map.get("boxes").toTensor();
-            final Tensor scoresTensor = map.get("scores").toTensor();
-            final Tensor labelsTensor = map.get("labels").toTensor();
-            boxesData = boxesTensor.getDataAsFloatArray();
-            scoresData = scoresTensor.getDataAsFloatArray();
-            labelsData = labelsTensor.getDataAsLongArray();
-
-            final int n = scoresData.length;
-            float[] outputs = new float[n * PrePostProcessor.OUTPUT_COLUMN];
-            int count = 0;
-            for (int i = 0; i < n; i++) {
-                if (scoresData[i] < 0.5)
-                    continue;
-
-                outputs[PrePostProcessor.OUTPUT_COLUMN * count + 0] = boxesData[4 * i + 0];
-                outputs[PrePostProcessor.OUTPUT_COLUMN * count + 1] = boxesData[4 * i + 1];
-                outputs[PrePostProcessor.OUTPUT_COLUMN * count + 2] = boxesData[4 * i + 2];
-                outputs[PrePostProcessor.OUTPUT_COLUMN * count + 3] = boxesData[4 * i + 3];
-                outputs[PrePostProcessor.OUTPUT_COLUMN * count + 4] = scoresData[i];
-                outputs[PrePostProcessor.OUTPUT_COLUMN * count + 5] = labelsData[i] - 1;
-                count++;
-            }
-
-            final ArrayList<Result> results = PrePostProcessor.outputsToPredictions(count, outputs, mImgScaleX, mImgScaleY, mIvScaleX, mIvScaleY, mStartX, mStartY);
-
-            runOnUiThread(() -> {
-                mButtonDetect.setEnabled(true);
-                mButtonDetect.setText(getString(R.string.detect));
-                mProgressBar.setVisibility(ProgressBar.INVISIBLE);
-                mResultView.setResults(results);
-                mResultView.invalidate();
-                mResultView.setVisibility(View.VISIBLE);
-            });
-        }
+        final ArrayList<Result> results = mOutputAdapter.toResults(map, mTransform);
+
+        runOnUiThread(() -> {
+            mButtonDetect.setEnabled(true);
+            mButtonDetect.setText(getString(R.string.detect));
+            mProgressBar.setVisibility(ProgressBar.INVISIBLE);
+            mResultView.setResults(results);
+            mResultView.invalidate();
+            mResultView.setVisibility(View.VISIBLE);
+        });
     }
 }
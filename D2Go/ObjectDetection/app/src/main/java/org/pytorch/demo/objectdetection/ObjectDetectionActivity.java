@@ -1,12 +1,5 @@
 package org.pytorch.demo.objectdetection;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.ImageFormat;
-import android.graphics.Matrix;
-import android.graphics.Rect;
-import android.graphics.YuvImage;
-import android.media.Image;
 import android.view.TextureView;
 import android.view.ViewStub;
 
@@ -16,19 +9,19 @@ import androidx.camera.core.ImageProxy;
 
 import org.pytorch.IValue;
 import org.pytorch.Module;
-import org.pytorch.PyTorchAndroid;
-import org.pytorch.Tensor;
-import org.pytorch.torchvision.TensorImageUtils;
 
-import java.io.ByteArrayOutputStream;
-import java.nio.ByteBuffer;
-import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.Map;
 
 public class ObjectDetectionActivity extends AbstractCameraXActivity<ObjectDetectionActivity.AnalysisResult> {
-    private Module mModule = null;
+    private volatile Module mModule = null;
     private ResultView mResultView;
+    private YuvTensorConverter mConverter;
+    private TensorArena mInputArena;
+    private final InputTransform mTransform =
+            new InputTransform(PrePostProcessor.mLiveInputMode, PrePostProcessor.mLiveInputSize);
+    private final D2GoOutputAdapter mOutputAdapter =
+            new D2GoOutputAdapter(PrePostProcessor.LIVE_SCORE_THRESHOLD, PrePostProcessor.MAX_DETECTIONS);
 
     static class AnalysisResult {
         private final ArrayList<Result> mResults;
@@ -57,27 +50,14 @@ public class ObjectDetectionActivity extends AbstractCameraXActivity<ObjectDetec
         mResultView.invalidate();
     }
 
-    private Bitmap imgToBitmap(Image image) {
-        Image.Plane[] planes = image.getPlanes();
-        ByteBuffer yBuffer = planes[0].getBuffer();
-        ByteBuffer uBuffer = planes[1].getBuffer();
-        ByteBuffer vBuffer = planes[2].getBuffer();
-
-        int ySize = yBuffer.remaining();
-        int uSize = uBuffer.remaining();
-        int vSize = vBuffer.remaining();
-
-        byte[] nv21 = new byte[ySize + uSize + vSize];
-        yBuffer.get(nv21, 0, ySize);
-        vBuffer.get(nv21, ySize, vSize);
-        uBuffer.get(nv21, ySize + vSize, uSize);
-
-        YuvImage yuvImage = new YuvImage(nv21, ImageFormat.NV21, image.getWidth(), image.getHeight(), null);
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        yuvImage.compressToJpeg(new Rect(0, 0, yuvImage.getWidth(), yuvImage.getHeight()), 75, out);
-
-        byte[] imageBytes = out.toByteArray();
-        return BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length);
+    @Override
+    protected void onDestroy() {
+        // the background thread running analyzeImage is stopped by the base class
+        super.onDestroy();
+        if (mModule != null) {
+            ModuleRegistry.getInstance(this).release(PrePostProcessor.MODULE_ASSET_NAME);
+            mModule = null;
+        }
     }
 
     @Override
@@ -85,55 +65,39 @@ public class ObjectDetectionActivity extends AbstractCameraXActivity<ObjectDetec
     @Nullable
     protected AnalysisResult analyzeImage(ImageProxy image, int rotationDegrees) {
         if (mModule == null) {
-            mModule = PyTorchAndroid.loadModuleFromAsset(getAssets(), "d2go.pt");
+            mModule = ModuleRegistry.getInstance(this).acquire(this, PrePostProcessor.MODULE_ASSET_NAME);
+        }
+        // the image is rotated by 90 degrees, the model input size depends on the resolution mode
+        if (mTransform.configure(image.getHeight(), image.getWidth()) || mConverter == null) {
+            final int width = mTransform.getInputWidth();
+            final int height = mTransform.getInputHeight();
+            mConverter = new YuvTensorConverter(width, height, mTransform.getConverterScaleMode(),
+                    PrePostProcessor.NO_MEAN_RGB, PrePostProcessor.NO_STD_RGB);
+            // the input buffer is reused across frames and only reallocated when the input size changes;
+            // it is filled and read within this call, so one slot is enough
+            mInputArena = new TensorArena(new long[] {3, height, width}, 1);
+        }
+        // detections are drawn over the camera preview, which fills the result view
+        mTransform.setView((float) mResultView.getWidth() / mTransform.getImageWidth(),
+                (float) mResultView.getHeight() / mTransform.getImageHeight(), 0, 0);
+        final TensorArena.Slot input = mInputArena.acquire();
+        if (input == null) {
+            return null;
         }
-        Bitmap bitmap = imgToBitmap(image.getImage());
-        Matrix matrix = new Matrix();
-        matrix.postRotate(90.0f);
-        bitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
-
-        final FloatBuffer floatBuffer = Tensor.allocateFloatBuffer(3 * bitmap.getWidth() * bitmap.getHeight());
-        TensorImageUtils.bitmapToFloatBuffer(bitmap, 0,0,bitmap.getWidth(),bitmap.getHeight(), PrePostProcessor.NO_MEAN_RGB, PrePostProcessor.NO_STD_RGB, floatBuffer, 0);
-        final Tensor inputTensor =  Tensor.fromBlob(floatBuffer, new long[] {3, bitmap.getHeight(), bitmap.getWidth()});
-
-        IValue[] outputTuple = mModule.forward(IValue.listFrom(inputTensor)).toTuple();
-        final Map<String, IValue> map = outputTuple[1].toList()[0].toDictStringKey();
-        float[] boxesData = new float[]{};
-        float[] scoresData = new float[]{};
-        long[] labelsData = new long[]{};
-
-        if (map.containsKey("boxes")) {
-            final Tensor boxesTensor = map.get("boxes").toTensor();
-            final Tensor scoresTensor = map.get("scores").toTensor();
-            final Tensor labelsTensor = map.get("labels").toTensor();
-            boxesData = boxesTensor.getDataAsFloatArray();
-            scoresData = scoresTensor.getDataAsFloatArray();
-            labelsData = labelsTensor.getDataAsLongArray();
-
-            final int n = scoresData.length;
-            int count = 0;
-            float[] outputs = new float[n * PrePostProcessor.OUTPUT_COLUMN];
-            for (int i = 0; i < n; i++) {
-                if (scoresData[i] < 0.4)
-                    continue;
-
-                outputs[PrePostProcessor.OUTPUT_COLUMN * count + 0] = boxesData[4 * i + 0];
-                outputs[PrePostProcessor.OUTPUT_COLUMN * count + 1] = boxesData[4 * i + 1];
-                outputs[PrePostProcessor.OUTPUT_COLUMN * count + 2] = boxesData[4 * i + 2];
-                outputs[PrePostProcessor.OUTPUT_COLUMN * count + 3] = boxesData[4 * i + 3];
-                outputs[PrePostProcessor.OUTPUT_COLUMN * count + 4] = scoresData[i];
-                outputs[PrePostProcessor.OUTPUT_COLUMN * count + 5] = labelsData[i] - 1;
-                count++;
-            }
-
-            float imgScaleX = (float) bitmap.getWidth() / PrePostProcessor.INPUT_WIDTH;
-            float imgScaleY = (float) bitmap.getHeight() / PrePostProcessor.INPUT_HEIGHT;
-            float ivScaleX = (float) mResultView.getWidth() / bitmap.getWidth();
-            float ivScaleY = (float) mResultView.getHeight() / bitmap.getHeight();
 
-            final ArrayList<Result> results = PrePostProcessor.outputsToPredictions(count, outputs, imgScaleX, imgScaleY, ivScaleX, ivScaleY, 0, 0);
-            return new AnalysisResult(results);
+        long time = mMetrics.start();
+        final IValue[] outputTuple;
+        try {
+            mConverter.convert(image.getImage(), 90, input.buffer, 0);
+            time = mMetrics.record(AnalysisMetrics.Stage.TENSOR_FILL, time);
+            outputTuple = mModule.forward(IValue.listFrom(input.tensor)).toTuple();
+            time = mMetrics.record(AnalysisMetrics.Stage.FORWARD, time);
+        } finally {
+            mInputArena.release(input);
         }
-        return null;
+        final Map<String, IValue> map = outputTuple[1].toList()[0].toDictStringKey();
+        final ArrayList<Result> results = mOutputAdapter.toResults(map, mTransform);
+        mMetrics.record(AnalysisMetrics.Stage.DECODE, time);
+        return new AnalysisResult(results);
     }
 }
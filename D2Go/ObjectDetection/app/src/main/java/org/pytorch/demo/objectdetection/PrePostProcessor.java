@@ -8,8 +8,6 @@ package org.pytorch.demo.objectdetection;
 
 import android.graphics.Rect;
 
-import java.util.ArrayList;
-
 class Result {
     int classIndex;
     Float score;
@@ -27,30 +25,21 @@ public class PrePostProcessor {
     public final static float[] NO_MEAN_RGB = new float[] {0.0f, 0.0f, 0.0f};
     public final static float[] NO_STD_RGB = new float[] {1.0f, 1.0f, 1.0f};
 
+    public final static String MODULE_ASSET_NAME = "d2go.pt";
+
     // model input image size
     public final static int INPUT_WIDTH = 640;
     public final static int INPUT_HEIGHT = 640;
-    public final static int OUTPUT_COLUMN = 6; // left, top, right, bottom, score and label
 
-    static String[] mClasses;
+    // model input of the live camera path: a fixed size letterbox keeps latency independent of
+    // the camera resolution, NATIVE and SHORT_SIDE trade speed for accuracy on other devices
+    static InputTransform.Mode mLiveInputMode = InputTransform.Mode.LETTERBOX;
+    static int mLiveInputSize = INPUT_WIDTH;
 
-    static ArrayList<Result> outputsToPredictions(int countResult, float[] outputs, float imgScaleX, float imgScaleY, float ivScaleX, float ivScaleY, float startX, float startY) {
-        ArrayList<Result> results = new ArrayList<>();
-        for (int i = 0; i< countResult; i++) {
-            float left = outputs[i* OUTPUT_COLUMN];
-            float top = outputs[i* OUTPUT_COLUMN +1];
-            float right = outputs[i* OUTPUT_COLUMN +2];
-            float bottom = outputs[i* OUTPUT_COLUMN +3];
-
-            left = imgScaleX * left;
-            top = imgScaleY * top;
-            right = imgScaleX * right;
-            bottom = imgScaleY * bottom;
-
-            Rect rect = new Rect((int)(startX+ivScaleX*left), (int)(startY+top*ivScaleY), (int)(startX+ivScaleX*right), (int)(startY+ivScaleY*bottom));
-            Result result = new Result((int)outputs[i* OUTPUT_COLUMN +5], outputs[i* OUTPUT_COLUMN +4], rect);
-            results.add(result);
-        }
-        return results;
-    }
+    // detections scoring below the threshold are dropped, at most MAX_DETECTIONS are shown
+    final static float PHOTO_SCORE_THRESHOLD = 0.5f;
+    final static float LIVE_SCORE_THRESHOLD = 0.4f;
+    final static int MAX_DETECTIONS = 100;
+
+    static String[] mClasses;
 }
@@ -21,11 +21,15 @@ import androidx.camera.core.Preview;
 import androidx.camera.core.PreviewConfig;
 import androidx.core.app.ActivityCompat;
 
+import java.io.File;
+import java.io.IOException;
+
 public abstract class AbstractCameraXActivity<R> extends BaseModuleActivity {
     private static final int REQUEST_CODE_CAMERA_PERMISSION = 200;
     private static final String[] PERMISSIONS = {Manifest.permission.CAMERA};
 
     private long mLastAnalysisResultTime;
+    protected final AnalysisMetrics mMetrics = new AnalysisMetrics(getClass().getSimpleName());
 
     protected abstract int getContentViewLayoutId();
 
@@ -88,13 +92,37 @@ public abstract class AbstractCameraXActivity<R> extends BaseModuleActivity {
                     final R result = analyzeImage(image, rotationDegrees);
                     if (result != null) {
                         mLastAnalysisResultTime = SystemClock.elapsedRealtime();
-                        runOnUiThread(() -> applyToUiAnalyzeImageResult(result));
+                        postResultToUi(result);
                     }
                 });
 
         CameraX.bindToLifecycle(this, preview, imageAnalysis);
     }
 
+    private void postResultToUi(R result) {
+        final long postTime = mMetrics.start();
+        runOnUiThread(() -> {
+            applyToUiAnalyzeImageResult(result);
+            mMetrics.record(AnalysisMetrics.Stage.UI_POST, postTime);
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        exportMetrics();
+        super.onDestroy();
+    }
+
+    private void exportMetrics() {
+        final File dir = getExternalFilesDir(null) != null ? getExternalFilesDir(null) : getFilesDir();
+        final File file = new File(dir, "metrics_" + getClass().getSimpleName() + ".json");
+        try {
+            mMetrics.exportJson(file);
+        } catch (IOException e) {
+            Log.e("PyTorchDemo", "Error writing analysis metrics", e);
+        }
+    }
+
     @WorkerThread
     @Nullable
     protected abstract R analyzeImage(ImageProxy image, int rotationDegrees);
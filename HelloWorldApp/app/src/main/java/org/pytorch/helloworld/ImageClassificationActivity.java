@@ -1,12 +1,7 @@
 package org.pytorch.helloworld;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.ImageFormat;
 import android.graphics.Matrix;
-import android.graphics.Rect;
-import android.graphics.YuvImage;
-import android.media.Image;
 import android.net.Uri;
 import android.os.Bundle;
 import android.provider.MediaStore;
@@ -31,7 +26,6 @@ import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -39,7 +33,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.lang.reflect.Type;
-import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -59,6 +53,9 @@ public class ImageClassificationActivity extends AbstractCameraXActivity<ImageCl
     }
 
     private Module mModule;
+    private YuvTensorConverter mConverter;
+    private FloatBuffer mInputTensorBuffer;
+    private Tensor mInputTensor;
     List<float[]> keyFrameFeatures = new ArrayList<float[]>();
     String[] keyFramePaths = null;
 
@@ -107,18 +104,22 @@ public class ImageClassificationActivity extends AbstractCameraXActivity<ImageCl
             Log.d("PyTorchDemo", "Key frame features loaded! len: " + keyFrameFeatures.size());
         }
 
-        Bitmap bitmap = imgToBitmap(image.getImage());
-        Matrix matrix = new Matrix();
-        matrix.postRotate(rotationDegrees);
-        bitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
-        bitmap = Bitmap.createScaledBitmap(bitmap, INPUT_TENSOR_WIDTH, INPUT_TENSOR_HEIGHT, true);
+        if (mConverter == null) {
+            mConverter = new YuvTensorConverter(INPUT_TENSOR_WIDTH, INPUT_TENSOR_HEIGHT, YuvTensorConverter.ScaleMode.STRETCH,
+                    TensorImageUtils.TORCHVISION_NORM_MEAN_RGB, TensorImageUtils.TORCHVISION_NORM_STD_RGB);
+            mInputTensorBuffer = Tensor.allocateFloatBuffer(3 * INPUT_TENSOR_WIDTH * INPUT_TENSOR_HEIGHT);
+            mInputTensor = Tensor.fromBlob(mInputTensorBuffer, new long[]{1, 3, INPUT_TENSOR_HEIGHT, INPUT_TENSOR_WIDTH});
+        }
+        long time = mMetrics.start();
+        mConverter.convert(image.getImage(), rotationDegrees, mInputTensorBuffer, 0);
+        time = mMetrics.record(AnalysisMetrics.Stage.TENSOR_FILL, time);
 
-        final Tensor inputTensor = TensorImageUtils.bitmapToFloat32Tensor(bitmap,
-                TensorImageUtils.TORCHVISION_NORM_MEAN_RGB, TensorImageUtils.TORCHVISION_NORM_STD_RGB);
-        final Tensor outputTensor = mModule.forward(IValue.from(inputTensor)).toTensor();
+        final Tensor outputTensor = mModule.forward(IValue.from(mInputTensor)).toTensor();
+        time = mMetrics.record(AnalysisMetrics.Stage.FORWARD, time);
         float[] feature = outputTensor.getDataAsFloatArray();
 
         int closestInd = getClosestKeyFrameIndex(feature);
+        mMetrics.record(AnalysisMetrics.Stage.DECODE, time);
 
         return new AnalysisResult(closestInd);
     }
@@ -246,29 +247,6 @@ public class ImageClassificationActivity extends AbstractCameraXActivity<ImageCl
         return "";
     }
 
-    private Bitmap imgToBitmap(Image image) {
-        Image.Plane[] planes = image.getPlanes();
-        ByteBuffer yBuffer = planes[0].getBuffer();
-        ByteBuffer uBuffer = planes[1].getBuffer();
-        ByteBuffer vBuffer = planes[2].getBuffer();
-
-        int ySize = yBuffer.remaining();
-        int uSize = uBuffer.remaining();
-        int vSize = vBuffer.remaining();
-
-        byte[] nv21 = new byte[ySize + uSize + vSize];
-        yBuffer.get(nv21, 0, ySize);
-        vBuffer.get(nv21, ySize, vSize);
-        uBuffer.get(nv21, ySize + vSize, uSize);
-
-        YuvImage yuvImage = new YuvImage(nv21, ImageFormat.NV21, image.getWidth(), image.getHeight(), null);
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        yuvImage.compressToJpeg(new Rect(0, 0, yuvImage.getWidth(), yuvImage.getHeight()), 75, out);
-
-        byte[] imageBytes = out.toByteArray();
-        return BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length);
-    }
-
     private Bitmap rotateBitmap(Uri uri) throws IOException {
         Bitmap bitmap = MediaStore.Images.Media.getBitmap(this.getContentResolver(), uri);
 
@@ -0,0 +1,82 @@
+package org.pytorch.helloworld;
+
+import java.util.Arrays;
+
+/**
+ Fixed-memory latency histogram with log-linear buckets, in the style of HdrHistogram. Values
+ below 32 get a bucket each; above that every power of two is split into 16 linear sub-buckets,
+ which keeps the relative error of reported percentiles under about 6%. Recording does not
+ allocate.
+ */
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_HALF = 1 << SUB_BUCKET_BITS; // 16
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKET_HALF; // 32
+    private static final int MAX_VALUE_BITS = 36;
+    private static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+    private static final int BUCKET_COUNT = LINEAR_LIMIT + (MAX_VALUE_BITS - SUB_BUCKET_BITS - 1) * SUB_BUCKET_HALF;
+
+    private final long[] mCounts = new long[BUCKET_COUNT];
+    private long mTotalCount;
+    private long mSum;
+    private long mMax;
+
+    synchronized void record(long value) {
+        final long v = value < 0 ? 0 : Math.min(value, MAX_VALUE);
+        mCounts[indexOf(v)]++;
+        mTotalCount++;
+        mSum += v;
+        mMax = Math.max(mMax, v);
+    }
+
+    synchronized void reset() {
+        Arrays.fill(mCounts, 0);
+        mTotalCount = 0;
+        mSum = 0;
+        mMax = 0;
+    }
+
+    synchronized long getTotalCount() {
+        return mTotalCount;
+    }
+
+    synchronized long getMax() {
+        return mMax;
+    }
+
+    synchronized double getMean() {
+        return mTotalCount == 0 ? 0 : (double)mSum / mTotalCount;
+    }
+
+    /**
+     Returns the highest value equivalent to the given percentile (0 to 100), capped at the
+     maximum recorded value.
+     */
+    synchronized long getValueAtPercentile(double percentile) {
+        if (mTotalCount == 0) return 0;
+        final long target = Math.max(1, (long)Math.ceil(percentile / 100.0 * mTotalCount));
+        long cumulative = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulative += mCounts[i];
+            if (cumulative >= target) {
+                return Math.min(highestValueOf(i), mMax);
+            }
+        }
+        return mMax;
+    }
+
+    private static int indexOf(long v) {
+        if (v < LINEAR_LIMIT) return (int)v;
+        // shift so that the top bits of v fall in [SUB_BUCKET_HALF, 2 * SUB_BUCKET_HALF)
+        final int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BUCKET_BITS;
+        return LINEAR_LIMIT + (shift - 1) * SUB_BUCKET_HALF + (int)(v >>> shift) - SUB_BUCKET_HALF;
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < LINEAR_LIMIT) return index;
+        final int k = index - LINEAR_LIMIT;
+        final int shift = k / SUB_BUCKET_HALF + 1;
+        final long subBucket = k % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
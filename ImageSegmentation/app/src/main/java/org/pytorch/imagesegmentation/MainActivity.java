@@ -2,7 +2,6 @@ package org.pytorch.imagesegmentation;
 
 import androidx.appcompat.app.AppCompatActivity;
 
-import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.os.Bundle;
@@ -17,11 +16,8 @@ import org.pytorch.Module;
 import org.pytorch.Tensor;
 import org.pytorch.torchvision.TensorImageUtils;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Map;
 
 public class MainActivity extends AppCompatActivity implements Runnable {
@@ -37,25 +33,24 @@ public class MainActivity extends AppCompatActivity implements Runnable {
     private static final int DOG = 12;
     private static final int PERSON = 15;
     private static final int SHEEP = 17;
+    // color of each class in the result, people red, dogs green, sheep blue and the rest black
+    private static final int[] PALETTE = new int[CLASSNUM];
+    static {
+        Arrays.fill(PALETTE, 0xFF000000);
+        PALETTE[PERSON] = 0xFFFF0000;
+        PALETTE[DOG] = 0xFF00FF00;
+        PALETTE[SHEEP] = 0xFF0000FF;
+    }
 
-    public static String assetFilePath(Context context, String assetName) throws IOException {
-        File file = new File(context.getFilesDir(), assetName);
-        if (file.exists() && file.length() > 0) {
-            return file.getAbsolutePath();
-        }
+    // photos larger than a tile are segmented in tiles, with at most TILE_PARALLELISM of them in flight
+    private static final int TILE_SIZE = 512;
+    private static final int TILE_OVERLAP = 32;
+    private static final int TILE_PARALLELISM = 2;
 
-        try (InputStream is = context.getAssets().open(assetName)) {
-            try (OutputStream os = new FileOutputStream(file)) {
-                byte[] buffer = new byte[4 * 1024];
-                int read;
-                while ((read = is.read(buffer)) != -1) {
-                    os.write(buffer, 0, read);
-                }
-                os.flush();
-            }
-            return file.getAbsolutePath();
-        }
-    }
+    private final SegmentationDecoder mDecoder = new SegmentationDecoder(PALETTE);
+    private TiledSegmenter mTiledSegmenter;
+    // class and then color of each pixel of a tiled photo, reused while photos are not larger
+    private int[] mMask = new int[0];
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -103,52 +98,19 @@ public class MainActivity extends AppCompatActivity implements Runnable {
             }
         });
 
-        try {
-            mModule = Module.load(MainActivity.assetFilePath(getApplicationContext(), "deeplabv3_scripted.pt"));
-        } catch (IOException e) {
-            Log.e("ImageSegmentation", "Error reading assets", e);
-            finish();
-        }
+        mModule = ModelStore.load(getApplicationContext(), "deeplabv3_scripted.pt");
 
     }
 
     @Override
     public void run() {
-        final Tensor inputTensor = TensorImageUtils.bitmapToFloat32Tensor(mBitmap,
-                TensorImageUtils.TORCHVISION_NORM_MEAN_RGB, TensorImageUtils.TORCHVISION_NORM_STD_RGB);
-        final float[] inputs = inputTensor.getDataAsFloatArray();
-        Map<String, IValue> outTensors = mModule.forward(IValue.from(inputTensor)).toDictStringKey();
-        final Tensor outputTensor = outTensors.get("out").toTensor();
-        final float[] scores = outputTensor.getDataAsFloatArray();
-        int width = mBitmap.getWidth();
-        int height = mBitmap.getHeight();
-        int[] intValues = new int[width * height];
-        for (int j = 0; j < width; j++) {
-            for (int k = 0; k < height; k++) {
-                int maxi = 0, maxj = 0, maxk = 0;
-                double maxnum = -Double.MAX_VALUE;
-                for (int i = 0; i < CLASSNUM; i++) {
-                    if (scores[i * (width * height) + j * width + k] > maxnum) {
-                        maxnum = scores[i * (width * height) + j * width + k];
-                        maxi = i; maxj = j; maxk = k;
-                    }
-                }
-                if (maxi == PERSON)
-                    intValues[maxj * width + maxk] = 0xFFFF0000;
-                else if (maxi == DOG)
-                    intValues[maxj * width + maxk] = 0xFF00FF00;
-                else if (maxi == SHEEP)
-                    intValues[maxj * width + maxk] = 0xFF0000FF;
-                else
-                    intValues[maxj * width + maxk] = 0xFF000000;
-            }
+        final Bitmap transferredBitmap;
+        if (mBitmap.getWidth() > TILE_SIZE || mBitmap.getHeight() > TILE_SIZE) {
+            transferredBitmap = segmentTiled(mBitmap);
+        } else {
+            transferredBitmap = segment(mBitmap);
         }
 
-        Bitmap bmpSegmentation = Bitmap.createScaledBitmap(mBitmap, width, height, true);
-        Bitmap outputBitmap = bmpSegmentation.copy(bmpSegmentation.getConfig(), true);
-        outputBitmap.setPixels(intValues, 0, outputBitmap.getWidth(), 0, 0, outputBitmap.getWidth(), outputBitmap.getHeight());
-        final Bitmap transferredBitmap = Bitmap.createScaledBitmap(outputBitmap, mBitmap.getWidth(), mBitmap.getHeight(), true);
-
         runOnUiThread(new Runnable() {
             @Override
             public void run() {
@@ -160,4 +122,43 @@ public class MainActivity extends AppCompatActivity implements Runnable {
             }
         });
     }
+
+    private Bitmap segment(Bitmap bitmap) {
+        final Tensor inputTensor = TensorImageUtils.bitmapToFloat32Tensor(bitmap,
+                TensorImageUtils.TORCHVISION_NORM_MEAN_RGB, TensorImageUtils.TORCHVISION_NORM_STD_RGB);
+        Map<String, IValue> outTensors = mModule.forward(IValue.from(inputTensor)).toDictStringKey();
+        final Tensor outputTensor = outTensors.get("out").toTensor();
+        final float[] scores = outputTensor.getDataAsFloatArray();
+        // the output is 1 x CLASSNUM x height x width
+        final long[] shape = outputTensor.shape();
+        final int width = (int) shape[3];
+        final int height = (int) shape[2];
+        final int[] intValues = mDecoder.decode(scores, (int) shape[1], width, height, new int[width * height]);
+
+        Bitmap outputBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        outputBitmap.setPixels(intValues, 0, width, 0, 0, width, height);
+        return Bitmap.createScaledBitmap(outputBitmap, bitmap.getWidth(), bitmap.getHeight(), true);
+    }
+
+    private Bitmap segmentTiled(Bitmap bitmap) {
+        if (mTiledSegmenter == null) {
+            mTiledSegmenter = new TiledSegmenter(mModule, TILE_SIZE, TILE_OVERLAP, TILE_PARALLELISM);
+        }
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        if (mMask.length < width * height) {
+            mMask = new int[width * height];
+        }
+        try {
+            mTiledSegmenter.segment(bitmap, mMask);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return bitmap;
+        }
+        mDecoder.colorize(mMask, width * height);
+
+        Bitmap outputBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        outputBitmap.setPixels(mMask, 0, width, 0, 0, width, height);
+        return outputBitmap;
+    }
 }
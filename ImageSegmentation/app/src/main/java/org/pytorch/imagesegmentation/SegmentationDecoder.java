@@ -0,0 +1,118 @@
+package org.pytorch.imagesegmentation;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ Turns the channel-major class scores of a segmentation model, numClasses planes of
+ width * height floats, into the class of each pixel and an ARGB image of those classes.
+
+ The image is split into bands of rows processed in parallel on the common fork-join pool. Each
+ band streams through the planes one after another, keeping the running maximum and its class
+ for its pixels, so every score is read once and in memory order. Equal scores keep the lower
+ class. The running classes are kept in the output pixels until they are mapped to colors, and
+ the scratch maxima are reused from call to call, so an instance should only decode one image
+ at a time.
+ */
+class SegmentationDecoder {
+    // bands are split until they have at most this many pixels
+    private static final int MIN_BAND_PIXELS = 16 * 1024;
+
+    private final int[] mPalette;
+    private float[] mMaxScores = new float[0];
+
+    // palette[c] is the ARGB color of class c
+    SegmentationDecoder(int[] palette) {
+        mPalette = palette.clone();
+    }
+
+    /**
+     Writes the color of each pixel to pixels, row by row, and returns pixels.
+     */
+    int[] decode(float[] scores, int numClasses, int width, int height, int[] pixels) {
+        final int planeSize = width * height;
+        if (scores.length < numClasses * planeSize) {
+            throw new IllegalArgumentException("Expected " + numClasses + " planes of " + width + "x" + height
+                    + " scores, got " + scores.length);
+        }
+        final int[] palette = mPalette;
+        if (palette.length < numClasses) {
+            throw new IllegalArgumentException("Palette has " + palette.length + " colors for " + numClasses + " classes");
+        }
+        if (mMaxScores.length < planeSize) {
+            mMaxScores = new float[planeSize];
+        }
+        ForkJoinPool.commonPool().invoke(new BandTask(scores, numClasses, planeSize, width, 0, height, palette, pixels));
+        return pixels;
+    }
+
+    /**
+     Replaces the first count class indices in classMap by their colors and returns classMap.
+     */
+    int[] colorize(int[] classMap, int count) {
+        final int[] palette = mPalette;
+        for (int p = 0; p < count; p++) {
+            classMap[p] = palette[classMap[p]];
+        }
+        return classMap;
+    }
+
+    private class BandTask extends RecursiveAction {
+        private final float[] mScores;
+        private final int mNumClasses;
+        private final int mPlaneSize;
+        private final int mWidth;
+        private final int mRowStart;
+        private final int mRowEnd;
+        private final int[] mBandPalette;
+        private final int[] mPixels;
+
+        BandTask(float[] scores, int numClasses, int planeSize, int width, int rowStart, int rowEnd,
+                 int[] palette, int[] pixels) {
+            mScores = scores;
+            mNumClasses = numClasses;
+            mPlaneSize = planeSize;
+            mWidth = width;
+            mRowStart = rowStart;
+            mRowEnd = rowEnd;
+            mBandPalette = palette;
+            mPixels = pixels;
+        }
+
+        @Override
+        protected void compute() {
+            final int rows = mRowEnd - mRowStart;
+            if (rows > 1 && rows * mWidth > MIN_BAND_PIXELS) {
+                final int mid = mRowStart + rows / 2;
+                invokeAll(new BandTask(mScores, mNumClasses, mPlaneSize, mWidth, mRowStart, mid, mBandPalette, mPixels),
+                        new BandTask(mScores, mNumClasses, mPlaneSize, mWidth, mid, mRowEnd, mBandPalette, mPixels));
+                return;
+            }
+
+            final float[] scores = mScores;
+            final float[] maxScores = mMaxScores;
+            // the class of each pixel until the palette replaces it
+            final int[] classMap = mPixels;
+            final int start = mRowStart * mWidth;
+            final int end = mRowEnd * mWidth;
+            System.arraycopy(scores, start, maxScores, start, end - start);
+            Arrays.fill(classMap, start, end, 0);
+            for (int c = 1; c < mNumClasses; c++) {
+                final int offset = c * mPlaneSize;
+                for (int p = start; p < end; p++) {
+                    final float score = scores[offset + p];
+                    if (score > maxScores[p]) {
+                        maxScores[p] = score;
+                        classMap[p] = c;
+                    }
+                }
+            }
+
+            final int[] palette = mBandPalette;
+            for (int p = start; p < end; p++) {
+                classMap[p] = palette[classMap[p]];
+            }
+        }
+    }
+}
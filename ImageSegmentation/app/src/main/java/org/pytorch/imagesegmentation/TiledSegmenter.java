@@ -0,0 +1,269 @@
+package org.pytorch.imagesegmentation;
+
+import android.graphics.Bitmap;
+
+import org.pytorch.IValue;
+import org.pytorch.Module;
+import org.pytorch.Tensor;
+import org.pytorch.torchvision.TensorImageUtils;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ Segments an image of any size in overlapping tiles, so neither the whole image nor its class
+ scores ever have to be in memory at once.
+
+ Tiles of tileSize x tileSize pixels overlap their neighbours by overlap pixels; the tiles on the
+ right and bottom edges are smaller instead of overlapping more. The model runs on the tiles in
+ row-major order, on the calling thread or on up to parallelism threads with at most that many
+ tiles in flight. Their scores are blended in order: across an overlap the weight of a tile
+ ramps linearly from 1 to 0, so the weights of all tiles covering a pixel sum to 1, and the class
+ with the highest blended score is written to the mask. Only the scores of the overlaps still
+ waiting for the next tile are kept, one column strip for the tile to the right and one row
+ strip for the row of tiles below.
+ */
+class TiledSegmenter {
+    private final Module mModule;
+    private final int mTileSize;
+    private final int mOverlap;
+    private final int mParallelism;
+
+    // input buffers by tile shape, shared by the threads running the model
+    private final Map<Long, ArrayDeque<FloatBuffer>> mInputPool = new HashMap<>();
+
+    // blending state, only used by the thread calling segment()
+    private int mNumClasses;
+    private float[] mRightCarry = new float[0];
+    private float[] mBottomCarry = new float[0];
+    private final float[] mWeightX;
+    private final float[] mWeightY;
+    private final float[] mMaxScores;
+    private final int[] mClasses;
+
+    private static class Tile {
+        final int x, y, width, height;
+        final boolean hasLeft, hasRight, hasTop, hasBottom;
+
+        Tile(int x, int y, int width, int height, boolean hasLeft, boolean hasRight, boolean hasTop, boolean hasBottom) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.hasLeft = hasLeft;
+            this.hasRight = hasRight;
+            this.hasTop = hasTop;
+            this.hasBottom = hasBottom;
+        }
+    }
+
+    TiledSegmenter(Module module, int tileSize, int overlap, int parallelism) {
+        if (overlap < 0 || 2 * overlap >= tileSize) {
+            throw new IllegalArgumentException("Overlap must be less than half the tile size, got "
+                    + overlap + " for " + tileSize);
+        }
+        mModule = module;
+        mTileSize = tileSize;
+        mOverlap = overlap;
+        mParallelism = Math.max(1, parallelism);
+        mWeightX = new float[tileSize];
+        mWeightY = new float[tileSize];
+        mMaxScores = new float[tileSize * tileSize];
+        mClasses = new int[tileSize * tileSize];
+    }
+
+    /**
+     Writes the class of each pixel of the bitmap to mask, row by row, and returns mask. mask
+     must have room for width * height entries.
+     */
+    int[] segment(Bitmap bitmap, int[] mask) throws InterruptedException {
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        if (mask.length < width * height) {
+            throw new IllegalArgumentException("Mask has " + mask.length + " entries for " + width + "x" + height);
+        }
+        final ArrayList<Tile> tiles = tiles(width, height);
+
+        if (mParallelism == 1) {
+            for (Tile tile : tiles) {
+                blend(tile, run(bitmap, tile), width, mask);
+            }
+            return mask;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(mParallelism);
+        final ArrayDeque<Future<Tensor>> pending = new ArrayDeque<>();
+        try {
+            int blended = 0;
+            for (Tile tile : tiles) {
+                // bounds the number of tile outputs held at once
+                if (pending.size() == mParallelism) {
+                    blend(tiles.get(blended++), pending.poll().get(), width, mask);
+                }
+                pending.add(executor.submit(() -> run(bitmap, tile)));
+            }
+            while (!pending.isEmpty()) {
+                blend(tiles.get(blended++), pending.poll().get(), width, mask);
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error segmenting tile", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return mask;
+    }
+
+    private ArrayList<Tile> tiles(int width, int height) {
+        final int stride = mTileSize - mOverlap;
+        final ArrayList<Tile> tiles = new ArrayList<>();
+        int y = 0;
+        boolean lastRow;
+        do {
+            final int tileHeight = Math.min(mTileSize, height - y);
+            lastRow = y + tileHeight >= height;
+            int x = 0;
+            boolean lastColumn;
+            do {
+                final int tileWidth = Math.min(mTileSize, width - x);
+                lastColumn = x + tileWidth >= width;
+                tiles.add(new Tile(x, y, tileWidth, tileHeight, x > 0, !lastColumn, y > 0, !lastRow));
+                x += stride;
+            } while (!lastColumn);
+            y += stride;
+        } while (!lastRow);
+        return tiles;
+    }
+
+    private Tensor run(Bitmap bitmap, Tile tile) {
+        final FloatBuffer input = takeInput(tile.width, tile.height);
+        try {
+            TensorImageUtils.bitmapToFloatBuffer(bitmap, tile.x, tile.y, tile.width, tile.height,
+                    TensorImageUtils.TORCHVISION_NORM_MEAN_RGB, TensorImageUtils.TORCHVISION_NORM_STD_RGB, input, 0);
+            final Tensor inputTensor = Tensor.fromBlob(input, new long[]{1, 3, tile.height, tile.width});
+            final Map<String, IValue> outTensors = mModule.forward(IValue.from(inputTensor)).toDictStringKey();
+            return outTensors.get("out").toTensor();
+        } finally {
+            returnInput(tile.width, tile.height, input);
+        }
+    }
+
+    private FloatBuffer takeInput(int width, int height) {
+        synchronized (mInputPool) {
+            final ArrayDeque<FloatBuffer> buffers = mInputPool.get(((long) width << 32) | height);
+            if (buffers != null && !buffers.isEmpty()) {
+                return buffers.pop();
+            }
+        }
+        return Tensor.allocateFloatBuffer(3 * width * height);
+    }
+
+    private void returnInput(int width, int height, FloatBuffer input) {
+        synchronized (mInputPool) {
+            final long key = ((long) width << 32) | height;
+            ArrayDeque<FloatBuffer> buffers = mInputPool.get(key);
+            if (buffers == null) {
+                buffers = new ArrayDeque<>();
+                mInputPool.put(key, buffers);
+            }
+            buffers.push(input);
+        }
+    }
+
+    /**
+     Adds the weighted scores of a tile to the carried overlaps, hands the parts the tile to
+     the right or the row below still contribute to on to them, and writes the class of the
+     pixels that are complete to the mask.
+     */
+    private void blend(Tile tile, Tensor output, int imageWidth, int[] mask) {
+        final long[] shape = output.shape();
+        final int numClasses = (int) shape[1];
+        if (shape[2] != tile.height || shape[3] != tile.width) {
+            throw new IllegalStateException("Model output of " + shape[3] + "x" + shape[2]
+                    + " for a tile of " + tile.width + "x" + tile.height);
+        }
+        final float[] scores = output.getDataAsFloatArray();
+
+        final int overlap = mOverlap;
+        if (numClasses != mNumClasses || mBottomCarry.length < numClasses * overlap * imageWidth) {
+            mNumClasses = numClasses;
+            mRightCarry = new float[numClasses * mTileSize * overlap];
+            mBottomCarry = new float[numClasses * overlap * imageWidth];
+        }
+        final float[] rightCarry = mRightCarry;
+        final float[] bottomCarry = mBottomCarry;
+
+        // columns before left come with carried scores, columns from right on are carried to the
+        // next tile, likewise for rows
+        final int tileWidth = tile.width;
+        final int tileHeight = tile.height;
+        final int left = tile.hasLeft ? overlap : 0;
+        final int right = tile.hasRight ? tileWidth - overlap : tileWidth;
+        final int top = tile.hasTop ? overlap : 0;
+        final int bottom = tile.hasBottom ? tileHeight - overlap : tileHeight;
+        rampWeights(mWeightX, tileWidth, left, right);
+        rampWeights(mWeightY, tileHeight, top, bottom);
+
+        final float[] maxScores = mMaxScores;
+        final int[] classes = mClasses;
+        final int planeSize = tileWidth * tileHeight;
+        for (int c = 0; c < numClasses; c++) {
+            final int plane = c * planeSize;
+            for (int ty = 0; ty < tileHeight; ty++) {
+                final float weightY = mWeightY[ty];
+                final int row = plane + ty * tileWidth;
+                // the right carry is indexed [class][tile row][overlap column], the bottom carry
+                // [class][overlap row][image column]; each slot is read before it is overwritten
+                final int rightCarryRow = (c * mTileSize + ty) * overlap;
+                final int bottomCarryRow = ty < top ? (c * overlap + ty) * imageWidth
+                        : ty >= bottom ? (c * overlap + ty - bottom) * imageWidth : -1;
+                for (int tx = 0; tx < tileWidth; tx++) {
+                    float score = weightY * mWeightX[tx] * scores[row + tx];
+                    if (tx < left) {
+                        score += rightCarry[rightCarryRow + tx];
+                    }
+                    if (tx >= right) {
+                        rightCarry[rightCarryRow + tx - right] = score;
+                        continue;
+                    }
+                    // complete across the row of tiles from here on
+                    if (ty < top) {
+                        score += bottomCarry[bottomCarryRow + tile.x + tx];
+                    } else if (ty >= bottom) {
+                        bottomCarry[bottomCarryRow + tile.x + tx] = score;
+                        continue;
+                    }
+                    final int p = ty * tileWidth + tx;
+                    if (c == 0 || score > maxScores[p]) {
+                        maxScores[p] = score;
+                        classes[p] = c;
+                    }
+                }
+            }
+        }
+
+        for (int ty = 0; ty < bottom; ty++) {
+            System.arraycopy(classes, ty * tileWidth, mask, (tile.y + ty) * imageWidth + tile.x, right);
+        }
+    }
+
+    // 1 inside, ramping down to 0 over [0, rampIn) towards the previous tile and over [rampOut, size)
+    // towards the next, mirrored so the weights of two overlapping tiles sum to 1
+    private static void rampWeights(float[] weights, int size, int rampIn, int rampOut) {
+        for (int i = 0; i < size; i++) {
+            if (i < rampIn) {
+                weights[i] = (i + 0.5f) / rampIn;
+            } else if (i >= rampOut) {
+                weights[i] = (size - i - 0.5f) / (size - rampOut);
+            } else {
+                weights[i] = 1;
+            }
+        }
+    }
+}
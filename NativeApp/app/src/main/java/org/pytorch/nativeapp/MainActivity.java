@@ -1,46 +1,25 @@
 package org.pytorch.nativeapp;
 
-import android.content.Context;
 import android.os.Bundle;
 import android.util.Log;
 import androidx.appcompat.app.AppCompatActivity;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 
 public class MainActivity extends AppCompatActivity {
 
   private static final String TAG = "PyTorchNativeApp";
 
-  public static String assetFilePath(Context context, String assetName) {
-    File file = new File(context.getFilesDir(), assetName);
-    if (file.exists() && file.length() > 0) {
-      return file.getAbsolutePath();
-    }
-
-    try (InputStream is = context.getAssets().open(assetName)) {
-      try (OutputStream os = new FileOutputStream(file)) {
-        byte[] buffer = new byte[4 * 1024];
-        int read;
-        while ((read = is.read(buffer)) != -1) {
-          os.write(buffer, 0, read);
-        }
-        os.flush();
-      }
-      return file.getAbsolutePath();
-    } catch (IOException e) {
-      Log.e(TAG, "Error process asset " + assetName + " to file path");
-    }
-    return null;
-  }
-
   @Override
   protected void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
-    final String modelFileAbsoluteFilePath =
-        new File(assetFilePath(this, "compute.pt")).getAbsolutePath();
+    // torch::jit::load in the native code needs a real file
+    final String modelFileAbsoluteFilePath;
+    try {
+      modelFileAbsoluteFilePath = ModelStore.filePath(this, "compute.pt");
+    } catch (IOException e) {
+      Log.e(TAG, "Error process asset compute.pt to file path", e);
+      return;
+    }
     NativeClient.loadAndForwardModel(modelFileAbsoluteFilePath);
   }
 }
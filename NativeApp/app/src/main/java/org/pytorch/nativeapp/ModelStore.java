@@ -0,0 +1,166 @@
+package org.pytorch.nativeapp;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ Copies model assets out of the APK for the native code, which needs a real file.
+
+ filePath() copies the asset once into filesDir, with FileChannel.transferFrom from the APK when
+ it is uncompressed and through a 1 MB buffer when it is not. The copy is written to a temporary file, checked against the CRC32 of the source and
+ only then renamed into place. A stamp file next to it records the size and the install time of
+ the APK, so truncated copies and copies left by an older version of the app are redone.
+ */
+class ModelStore {
+  private static final String TAG = "ModelStore";
+  private static final int COPY_BUFFER_SIZE = 1024 * 1024;
+  private static final String TEMP_SUFFIX = ".tmp";
+  private static final String STAMP_SUFFIX = ".stamp";
+
+  static synchronized String filePath(Context context, String assetName) throws IOException {
+    final File file = new File(context.getFilesDir(), assetName);
+    final File stampFile = new File(context.getFilesDir(), assetName + STAMP_SUFFIX);
+    final long installTime = installTime(context);
+    if (file.exists() && isStampValid(stampFile, file.length(), installTime)) {
+      return file.getAbsolutePath();
+    }
+
+    final File tempFile = new File(context.getFilesDir(), assetName + TEMP_SUFFIX);
+    try {
+      final long sourceChecksum = copyAsset(context.getAssets(), assetName, tempFile);
+      final long copyChecksum = checksum(tempFile);
+      if (sourceChecksum != copyChecksum) {
+        throw new IOException(String.format("Checksum mismatch copying %s: %08x != %08x",
+            assetName, copyChecksum, sourceChecksum));
+      }
+      stampFile.delete();
+      if (!tempFile.renameTo(file)) {
+        throw new IOException("Error renaming " + tempFile + " to " + file);
+      }
+      writeStamp(stampFile, file.length(), sourceChecksum, installTime);
+    } finally {
+      tempFile.delete();
+    }
+    return file.getAbsolutePath();
+  }
+
+  /**
+   Copies the asset to dest and returns the CRC32 of the source bytes.
+   */
+  private static long copyAsset(AssetManager assets, String assetName, File dest) throws IOException {
+    AssetFileDescriptor assetFd = null;
+    try {
+      assetFd = assets.openFd(assetName);
+    } catch (FileNotFoundException e) {
+      // compressed in the APK, there is no file region to copy from
+    }
+
+    try (FileOutputStream os = new FileOutputStream(dest)) {
+      final FileChannel out = os.getChannel();
+      final long checksum;
+      if (assetFd != null) {
+        try {
+          // the descriptor stays owned by assetFd, so the stream is not closed here
+          final FileChannel apk = new FileInputStream(assetFd.getFileDescriptor()).getChannel();
+          final long start = assetFd.getStartOffset();
+          final long length = assetFd.getLength();
+          for (long done = 0; done < length; ) {
+            apk.position(start + done);
+            final long transferred = out.transferFrom(apk, done, length - done);
+            if (transferred <= 0) {
+              throw new IOException("Unexpected end of " + assetName + " after " + done + " bytes");
+            }
+            done += transferred;
+          }
+          checksum = checksum(apk, start, length);
+        } finally {
+          assetFd.close();
+        }
+      } else {
+        final CRC32 crc = new CRC32();
+        try (InputStream is = new CheckedInputStream(assets.open(assetName), crc)) {
+          final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+          int read;
+          while ((read = is.read(buffer)) != -1) {
+            final ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+            while (chunk.hasRemaining()) {
+              out.write(chunk);
+            }
+          }
+        }
+        checksum = crc.getValue();
+      }
+      out.force(true);
+      return checksum;
+    }
+  }
+
+  private static long checksum(File file) throws IOException {
+    try (FileInputStream is = new FileInputStream(file)) {
+      return checksum(is.getChannel(), 0, file.length());
+    }
+  }
+
+  private static long checksum(FileChannel channel, long start, long length) throws IOException {
+    final CRC32 crc = new CRC32();
+    final ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+    for (long done = 0; done < length; ) {
+      buffer.clear();
+      buffer.limit((int)Math.min(buffer.capacity(), length - done));
+      final int read = channel.read(buffer, start + done);
+      if (read <= 0) {
+        throw new IOException("Unexpected end of file after " + done + " bytes");
+      }
+      crc.update(buffer.array(), 0, read);
+      done += read;
+    }
+    return crc.getValue();
+  }
+
+  private static long installTime(Context context) {
+    try {
+      return context.getPackageManager().getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+    } catch (PackageManager.NameNotFoundException e) {
+      return 0;
+    }
+  }
+
+  // stamp format: "<length> <crc32> <install time>"
+  private static boolean isStampValid(File stampFile, long length, long installTime) {
+    try (BufferedReader reader = new BufferedReader(new FileReader(stampFile))) {
+      final String[] fields = reader.readLine().trim().split(" ");
+      return fields.length == 3
+          && Long.parseLong(fields[0]) == length
+          && Long.parseLong(fields[2]) == installTime;
+    } catch (IOException | RuntimeException e) {
+      return false;
+    }
+  }
+
+  private static void writeStamp(File stampFile, long length, long checksum, long installTime) {
+    try (Writer writer = new FileWriter(stampFile)) {
+      writer.write(length + " " + checksum + " " + installTime);
+    } catch (IOException e) {
+      // without a stamp the asset is copied again next time
+      Log.e(TAG, "Error writing " + stampFile, e);
+    }
+  }
+}
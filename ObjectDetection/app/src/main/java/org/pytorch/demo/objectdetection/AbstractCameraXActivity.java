@@ -10,6 +10,7 @@ import android.Manifest;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.os.SystemClock;
+import android.util.Log;
 import android.util.Size;
 import android.view.TextureView;
 import android.widget.Toast;
@@ -25,11 +26,21 @@ import androidx.camera.core.Preview;
 import androidx.camera.core.PreviewConfig;
 import androidx.core.app.ActivityCompat;
 
+import java.io.File;
+import java.io.IOException;
+
 public abstract class AbstractCameraXActivity<R> extends BaseModuleActivity {
     private static final int REQUEST_CODE_CAMERA_PERMISSION = 200;
     private static final String[] PERMISSIONS = {Manifest.permission.CAMERA};
 
-    private long mLastAnalysisResultTime;
+    // bounds for the adaptive interval between analyzed frames
+    protected static final long MIN_ANALYSIS_INTERVAL_MS = 0;
+    protected static final long MAX_ANALYSIS_INTERVAL_MS = 1000;
+
+    private final AnalysisRateController mRateController =
+        new AnalysisRateController(1, MIN_ANALYSIS_INTERVAL_MS, MAX_ANALYSIS_INTERVAL_MS);
+    private AnalysisPipeline<?, R> mAnalysisPipeline;
+    protected final AnalysisMetrics mMetrics = new AnalysisMetrics(getClass().getSimpleName());
 
     protected abstract int getContentViewLayoutId();
 
@@ -82,19 +93,81 @@ public abstract class AbstractCameraXActivity<R> extends BaseModuleActivity {
                 .setImageReaderMode(ImageAnalysis.ImageReaderMode.ACQUIRE_LATEST_IMAGE)
                 .build();
         final ImageAnalysis imageAnalysis = new ImageAnalysis(imageAnalysisConfig);
-        imageAnalysis.setAnalyzer((image, rotationDegrees) -> {
-            if (SystemClock.elapsedRealtime() - mLastAnalysisResultTime < 500) {
-                return;
-            }
+        // the analyzer keeps its own reference, as onDestroy() clears the field while frames
+        // may still be queued on the background thread
+        final AnalysisPipeline<?, R> pipeline = createAnalysisPipeline();
+        mAnalysisPipeline = pipeline;
+        if (pipeline != null) {
+            pipeline.start(this::postResultToUi);
+            imageAnalysis.setAnalyzer((image, rotationDegrees) -> pipeline.submit(image, rotationDegrees));
+        } else {
+            imageAnalysis.setAnalyzer((image, rotationDegrees) -> {
+                final long startTime = SystemClock.elapsedRealtime();
+                if (!mRateController.tryAdmit(startTime)) {
+                    return;
+                }
+
+                final R result = analyzeImage(image, rotationDegrees);
+                mRateController.recordStageLatency(0, SystemClock.elapsedRealtime() - startTime);
+                if (result != null) {
+                    postResultToUi(result);
+                }
+            });
+        }
 
-            final R result = analyzeImage(image, rotationDegrees);
-            if (result != null) {
-                mLastAnalysisResultTime = SystemClock.elapsedRealtime();
-                runOnUiThread(() -> applyToUiAnalyzeImageResult(result));
-            }
+        CameraX.bindToLifecycle(this, preview, imageAnalysis);
+    }
+
+    private void postResultToUi(R result) {
+        final long postTime = mMetrics.start();
+        runOnUiThread(() -> {
+            applyToUiAnalyzeImageResult(result);
+            mMetrics.record(AnalysisMetrics.Stage.UI_POST, postTime);
         });
+    }
 
-        CameraX.bindToLifecycle(this, preview, imageAnalysis);
+    @Override
+    protected void onDestroy() {
+        final AnalysisPipeline<?, R> pipeline = mAnalysisPipeline;
+        mAnalysisPipeline = null;
+        if (pipeline != null) {
+            // the stage threads are not joined here; the last one to exit calls onAnalysisStopped()
+            pipeline.stop(this::onAnalysisStopped);
+        }
+        exportMetrics();
+        // waits for the background thread, which only preprocesses frames when there is a pipeline
+        super.onDestroy();
+        if (pipeline == null) {
+            onAnalysisStopped();
+        }
+    }
+
+    /**
+     Called once no analysis runs any more, to release what it used: on the last pipeline stage
+     thread to exit, or on the UI thread after the background thread stopped if there is no
+     pipeline.
+     */
+    protected void onAnalysisStopped() {
+    }
+
+    private void exportMetrics() {
+        final File dir = getExternalFilesDir(null) != null ? getExternalFilesDir(null) : getFilesDir();
+        final File file = new File(dir, "metrics_" + getClass().getSimpleName() + ".json");
+        try {
+            mMetrics.exportJson(file);
+        } catch (IOException e) {
+            Log.e("Object Detection", "Error writing analysis metrics", e);
+        }
+    }
+
+    /**
+     Subclasses that split their analysis into stages return a pipeline here, so preprocessing,
+     inference and postprocessing of consecutive frames overlap. Otherwise analyzeImage is
+     called for each admitted frame on the background thread.
+     */
+    @Nullable
+    protected AnalysisPipeline<?, R> createAnalysisPipeline() {
+        return null;
     }
 
     @WorkerThread
@@ -0,0 +1,156 @@
+// Copyright (c) 2020 Facebook, Inc. and its affiliates.
+// All rights reserved.
+//
+// This source code is licensed under the BSD-style license found in the
+// LICENSE file in the root directory of this source tree.
+
+package org.pytorch.demo.objectdetection;
+
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.camera.core.ImageProxy;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ Runs camera analysis as three overlapping stages: frame N+1 is preprocessed on the camera
+ analyzer thread while frame N runs through the model on the inference thread and frame N-1
+ is postprocessed on the postprocess thread. The stages are connected by single-slot,
+ latest-frame-wins queues, and an AnalysisRateController only admits new frames as fast as
+ the slowest stage drains them.
+ */
+class AnalysisPipeline<F, R> {
+    static final int STAGE_PREPROCESS = 0;
+    static final int STAGE_INFERENCE = 1;
+    static final int STAGE_POSTPROCESS = 2;
+    private static final int STAGE_COUNT = 3;
+
+    interface Stages<F, R> {
+        // called on the camera analyzer thread, the image is only valid during this call
+        @WorkerThread
+        @Nullable
+        F preprocess(ImageProxy image, int rotationDegrees);
+
+        @WorkerThread
+        void infer(F frame);
+
+        @WorkerThread
+        @Nullable
+        R postprocess(F frame);
+
+        // the frame is no longer used by the pipeline, e.g. it was dropped or fully processed
+        void recycle(F frame);
+    }
+
+    interface ResultCallback<R> {
+        void onResult(R result);
+    }
+
+    private final Stages<F, R> mStages;
+    private final AnalysisRateController mRateController;
+    private final LatestFrameQueue<F> mInferenceQueue = new LatestFrameQueue<>();
+    private final LatestFrameQueue<F> mPostprocessQueue = new LatestFrameQueue<>();
+    private ResultCallback<R> mCallback;
+    private final AtomicInteger mRunningStages = new AtomicInteger();
+    private final AtomicReference<Runnable> mOnStopped = new AtomicReference<>();
+
+    AnalysisPipeline(Stages<F, R> stages, long minIntervalMs, long maxIntervalMs) {
+        mStages = stages;
+        mRateController = new AnalysisRateController(STAGE_COUNT, minIntervalMs, maxIntervalMs);
+    }
+
+    void start(ResultCallback<R> callback) {
+        mCallback = callback;
+        mRunningStages.set(2);
+        new Thread(this::runInference, "AnalysisInference").start();
+        new Thread(this::runPostprocess, "AnalysisPostprocess").start();
+    }
+
+    /**
+     Closes the queues and wakes up the stage threads without waiting for them, so it can be
+     called on the UI thread. Frames submitted or finishing a stage afterwards are recycled
+     instead of queued. onStopped runs once both stage threads have finished, on the last of
+     them to exit, so it can release what the stages use.
+     */
+    void stop(Runnable onStopped) {
+        mOnStopped.set(onStopped);
+        recycle(mInferenceQueue.close());
+        recycle(mPostprocessQueue.close());
+        if (mRunningStages.get() == 0) {
+            runOnStopped();
+        }
+    }
+
+    private void onStageExit() {
+        if (mRunningStages.decrementAndGet() == 0) {
+            runOnStopped();
+        }
+    }
+
+    private void runOnStopped() {
+        final Runnable onStopped = mOnStopped.getAndSet(null);
+        if (onStopped != null) {
+            onStopped.run();
+        }
+    }
+
+    @WorkerThread
+    void submit(ImageProxy image, int rotationDegrees) {
+        final long startTime = SystemClock.elapsedRealtime();
+        if (!mRateController.tryAdmit(startTime)) {
+            return;
+        }
+        final F frame = mStages.preprocess(image, rotationDegrees);
+        if (frame == null) {
+            return;
+        }
+        mRateController.recordStageLatency(STAGE_PREPROCESS, SystemClock.elapsedRealtime() - startTime);
+        recycle(mInferenceQueue.offer(frame));
+    }
+
+    private void runInference() {
+        try {
+            F frame;
+            while ((frame = mInferenceQueue.take()) != null) {
+                final long startTime = SystemClock.elapsedRealtime();
+                mStages.infer(frame);
+                mRateController.recordStageLatency(STAGE_INFERENCE, SystemClock.elapsedRealtime() - startTime);
+                recycle(mPostprocessQueue.offer(frame));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // inference is the only producer of the postprocess queue
+            recycle(mPostprocessQueue.close());
+            onStageExit();
+        }
+    }
+
+    private void runPostprocess() {
+        try {
+            F frame;
+            while ((frame = mPostprocessQueue.take()) != null) {
+                final long startTime = SystemClock.elapsedRealtime();
+                final R result = mStages.postprocess(frame);
+                mRateController.recordStageLatency(STAGE_POSTPROCESS, SystemClock.elapsedRealtime() - startTime);
+                mStages.recycle(frame);
+                if (result != null) {
+                    mCallback.onResult(result);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            onStageExit();
+        }
+    }
+
+    private void recycle(F frame) {
+        if (frame != null) {
+            mStages.recycle(frame);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+// Copyright (c) 2020 Facebook, Inc. and its affiliates.
+// All rights reserved.
+//
+// This source code is licensed under the BSD-style license found in the
+// LICENSE file in the root directory of this source tree.
+
+package org.pytorch.demo.objectdetection;
+
+/**
+ Decides which camera frames are admitted for analysis. The admission interval follows the
+ smoothed latency of the slowest stage, so frames are accepted at the rate the device can
+ actually sustain instead of being preprocessed and then dropped.
+ */
+class AnalysisRateController {
+    private static final float SMOOTHING = 0.2f; // weight of the newest sample
+
+    private final float[] mStageLatencyMs;
+    private final long mMinIntervalMs;
+    private final long mMaxIntervalMs;
+    private long mLastAdmitTime;
+    private boolean mAdmitted;
+
+    AnalysisRateController(int stageCount, long minIntervalMs, long maxIntervalMs) {
+        mStageLatencyMs = new float[stageCount];
+        mMinIntervalMs = minIntervalMs;
+        mMaxIntervalMs = maxIntervalMs;
+    }
+
+    synchronized void recordStageLatency(int stage, long latencyMs) {
+        final float previous = mStageLatencyMs[stage];
+        mStageLatencyMs[stage] = previous == 0 ? latencyMs : previous + SMOOTHING * (latencyMs - previous);
+    }
+
+    synchronized long getIntervalMs() {
+        float bottleneck = 0;
+        for (float latency : mStageLatencyMs) {
+            bottleneck = Math.max(bottleneck, latency);
+        }
+        return Math.max(mMinIntervalMs, Math.min(mMaxIntervalMs, (long)bottleneck));
+    }
+
+    synchronized boolean tryAdmit(long nowMs) {
+        if (mAdmitted && nowMs - mLastAdmitTime < getIntervalMs()) {
+            return false;
+        }
+        mAdmitted = true;
+        mLastAdmitTime = nowMs;
+        return true;
+    }
+}
@@ -0,0 +1,91 @@
+// Copyright (c) 2020 Facebook, Inc. and its affiliates.
+// All rights reserved.
+//
+// This source code is licensed under the BSD-style license found in the
+// LICENSE file in the root directory of this source tree.
+
+package org.pytorch.demo.objectdetection;
+
+import android.graphics.Rect;
+
+import java.util.Arrays;
+
+/**
+ Struct-of-arrays storage for decoded detection candidates. The arrays grow on demand and are
+ reused from frame to frame, so decoding a model output creates no object per candidate.
+ Instances are not thread safe; keep one per analyzer thread.
+ */
+class DetectionBuffer {
+    float[] x1;
+    float[] y1;
+    float[] x2;
+    float[] y2;
+    float[] score;
+    int[] classIndex;
+    int size;
+
+    DetectionBuffer(int capacity) {
+        x1 = new float[capacity];
+        y1 = new float[capacity];
+        x2 = new float[capacity];
+        y2 = new float[capacity];
+        score = new float[capacity];
+        classIndex = new int[capacity];
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    int add(float left, float top, float right, float bottom, float score, int cls) {
+        if (size == x1.length) {
+            grow();
+        }
+        final int i = size++;
+        this.x1[i] = left;
+        this.y1[i] = top;
+        this.x2[i] = right;
+        this.y2[i] = bottom;
+        this.score[i] = score;
+        this.classIndex[i] = cls;
+        return i;
+    }
+
+    float area(int i) {
+        return (x2[i] - x1[i]) * (y2[i] - y1[i]);
+    }
+
+    /**
+     Computes intersection-over-union overlap between candidates a and b.
+     */
+    float iou(int a, int b) {
+        float areaA = area(a);
+        if (areaA <= 0.0) return 0.0f;
+
+        float areaB = area(b);
+        if (areaB <= 0.0) return 0.0f;
+
+        float intersectionMinX = Math.max(x1[a], x1[b]);
+        float intersectionMinY = Math.max(y1[a], y1[b]);
+        float intersectionMaxX = Math.min(x2[a], x2[b]);
+        float intersectionMaxY = Math.min(y2[a], y2[b]);
+        float intersectionArea = Math.max(intersectionMaxY - intersectionMinY, 0) *
+                Math.max(intersectionMaxX - intersectionMinX, 0);
+        return intersectionArea / (areaA + areaB - intersectionArea);
+    }
+
+    Result toResult(int i) {
+        Rect rect = new Rect((int)x1[i], (int)y1[i], (int)x2[i], (int)y2[i]);
+        return new Result(classIndex[i], score[i], rect);
+    }
+
+    private void grow() {
+        final int capacity = Math.max(16, x1.length * 2);
+        x1 = Arrays.copyOf(x1, capacity);
+        y1 = Arrays.copyOf(y1, capacity);
+        x2 = Arrays.copyOf(x2, capacity);
+        y2 = Arrays.copyOf(y2, capacity);
+        score = Arrays.copyOf(score, capacity);
+        classIndex = Arrays.copyOf(classIndex, capacity);
+    }
+}
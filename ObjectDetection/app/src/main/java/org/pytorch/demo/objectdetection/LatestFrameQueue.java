@@ -0,0 +1,53 @@
+// Copyright (c) 2020 Facebook, Inc. and its affiliates.
+// All rights reserved.
+//
+// This source code is licensed under the BSD-style license found in the
+// LICENSE file in the root directory of this source tree.
+
+package org.pytorch.demo.objectdetection;
+
+/**
+ Single-slot hand-off between one producer and one consumer thread. Offering a new item
+ replaces one that has not been taken yet, so the consumer always gets the latest frame and
+ the replaced item is handed back to the producer for recycling.
+ */
+class LatestFrameQueue<T> {
+    private T mItem;
+    private boolean mClosed;
+
+    /**
+     Returns the item that was replaced, or null. Once closed the offered item is returned.
+     */
+    synchronized T offer(T item) {
+        if (mClosed) {
+            return item;
+        }
+        final T dropped = mItem;
+        mItem = item;
+        notifyAll();
+        return dropped;
+    }
+
+    /**
+     Blocks until an item is available; returns null once the queue is closed.
+     */
+    synchronized T take() throws InterruptedException {
+        while (mItem == null && !mClosed) {
+            wait();
+        }
+        final T item = mItem;
+        mItem = null;
+        return item;
+    }
+
+    /**
+     Wakes up the consumer and returns the pending item, if any.
+     */
+    synchronized T close() {
+        mClosed = true;
+        notifyAll();
+        final T item = mItem;
+        mItem = null;
+        return item;
+    }
+}
@@ -31,7 +31,6 @@ import android.widget.ProgressBar;
 
 import org.pytorch.IValue;
 import org.pytorch.Module;
-import org.pytorch.PyTorchAndroid;
 import org.pytorch.Tensor;
 import org.pytorch.torchvision.TensorImageUtils;
 
@@ -54,7 +53,7 @@ public class MainActivity extends AppCompatActivity implements Runnable {
     private Button mButtonDetect;
     private ProgressBar mProgressBar;
     private Bitmap mBitmap = null;
-    private Module mModule = null;
+    private volatile Module mModule = null;
     private float mImgScaleX, mImgScaleY, mIvScaleX, mIvScaleY, mStartX, mStartY;
 
     @Override
@@ -162,7 +161,10 @@ public class MainActivity extends AppCompatActivity implements Runnable {
         });
 
         try {
-            mModule = PyTorchAndroid.loadModuleFromAsset(getAssets(), "yolov5s.torchscript.pt");
+            // load the model and run it once in the background, the camera activity shares the instance
+            ModuleRegistry.getInstance(this).warmUp(this, PrePostProcessor.MODULE_ASSET_NAME,
+                    IValue.from(Tensor.fromBlob(new float[3 * PrePostProcessor.mInputWidth * PrePostProcessor.mInputHeight],
+                            new long[]{1, 3, PrePostProcessor.mInputHeight, PrePostProcessor.mInputWidth})));
             BufferedReader br = new BufferedReader(new InputStreamReader(getAssets().open("classes.txt")));
             String line;
             List<String> classes = new ArrayList<>();
@@ -216,14 +218,25 @@ public class MainActivity extends AppCompatActivity implements Runnable {
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mModule != null) {
+            ModuleRegistry.getInstance(this).release(PrePostProcessor.MODULE_ASSET_NAME);
+            mModule = null;
+        }
+    }
+
     @Override
     public void run() {
+        if (mModule == null) {
+            mModule = ModuleRegistry.getInstance(this).acquire(this, PrePostProcessor.MODULE_ASSET_NAME);
+        }
         Bitmap resizedBitmap = Bitmap.createScaledBitmap(mBitmap, PrePostProcessor.mInputWidth, PrePostProcessor.mInputHeight, true);
         final Tensor inputTensor = TensorImageUtils.bitmapToFloat32Tensor(resizedBitmap, PrePostProcessor.NO_MEAN_RGB, PrePostProcessor.NO_STD_RGB);
         IValue[] outputTuple = mModule.forward(IValue.from(inputTensor)).toTuple();
         final Tensor outputTensor = outputTuple[0].toTensor();
-        final float[] outputs = outputTensor.getDataAsFloatArray();
-        final ArrayList<Result> results =  PrePostProcessor.outputsToNMSPredictions(outputs, mImgScaleX, mImgScaleY, mIvScaleX, mIvScaleY, mStartX, mStartY);
+        final ArrayList<Result> results =  PrePostProcessor.outputsToNMSPredictions(outputTensor, mImgScaleX, mImgScaleY, mIvScaleX, mIvScaleY, mStartX, mStartY);
 
         runOnUiThread(() -> {
             mButtonDetect.setEnabled(true);
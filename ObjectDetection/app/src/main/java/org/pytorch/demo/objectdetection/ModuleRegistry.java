@@ -0,0 +1,198 @@
+// Copyright (c) 2020 Facebook, Inc. and its affiliates.
+// All rights reserved.
+//
+// This source code is licensed under the BSD-style license found in the
+// LICENSE file in the root directory of this source tree.
+
+package org.pytorch.demo.objectdetection;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Configuration;
+import android.util.Log;
+
+import org.pytorch.IValue;
+import org.pytorch.Module;
+import org.pytorch.PyTorchAndroid;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ Process-wide cache of loaded modules keyed by asset name, so activities that use the same model
+ share one instance instead of each loading its own.
+
+ acquire() loads the module on first use and counts references; release() drops one. Modules
+ without references stay loaded as idle entries, evicted least recently released first once
+ their combined asset size exceeds the idle budget, and all at once when the system reports
+ memory pressure. warmUp() loads a module and runs one forward pass on a background thread,
+ so the first real inference does not pay for loading and first-run initialization.
+ */
+class ModuleRegistry {
+    private static final String TAG = "ModuleRegistry";
+    // combined asset size of idle modules kept loaded for reuse
+    private static final long IDLE_BUDGET_BYTES = 256L * 1024 * 1024;
+
+    private static ModuleRegistry sInstance;
+
+    private static class Entry {
+        // loads the module outside the registry lock; module and sizeBytes are set once it completes
+        final FutureTask<Module> load;
+        Module module;
+        long sizeBytes;
+        int refCount;
+
+        Entry(Context context, String assetName) {
+            load = new FutureTask<>(() -> {
+                module = PyTorchAndroid.loadModuleFromAsset(context.getAssets(), assetName);
+                sizeBytes = assetSize(context, assetName);
+                return module;
+            });
+        }
+    }
+
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    // entries without references, least recently released first
+    private final LinkedHashMap<String, Entry> mIdle = new LinkedHashMap<>();
+    private long mIdleBytes;
+
+    static synchronized ModuleRegistry getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ModuleRegistry();
+            context.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+                @Override
+                public void onTrimMemory(int level) {
+                    if (level >= TRIM_MEMORY_RUNNING_LOW) {
+                        sInstance.evictIdle(true);
+                    }
+                }
+
+                @Override
+                public void onLowMemory() {
+                    sInstance.evictIdle(true);
+                }
+
+                @Override
+                public void onConfigurationChanged(Configuration newConfig) {
+                }
+            });
+        }
+        return sInstance;
+    }
+
+    /**
+     Returns the module for the asset, loading it if needed. Every call must be paired with a
+     release() once the caller no longer uses the module. The module is loaded without holding
+     the registry lock, and concurrent callers for the same asset wait for that one load.
+     */
+    Module acquire(Context context, String assetName) {
+        final Entry entry;
+        synchronized (this) {
+            Entry existing = mEntries.get(assetName);
+            if (existing == null) {
+                existing = new Entry(context.getApplicationContext(), assetName);
+                mEntries.put(assetName, existing);
+            } else if (existing.refCount == 0) {
+                mIdle.remove(assetName);
+                mIdleBytes -= existing.sizeBytes;
+            }
+            existing.refCount++;
+            entry = existing;
+        }
+        // the first caller to get here loads the module, run() returns at once for the others
+        entry.load.run();
+        try {
+            return getUninterruptibly(entry.load);
+        } catch (ExecutionException e) {
+            synchronized (this) {
+                if (mEntries.get(assetName) == entry) {
+                    mEntries.remove(assetName);
+                }
+            }
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+            if (cause instanceof Error) throw (Error)cause;
+            throw new RuntimeException(cause);
+        }
+    }
+
+    synchronized void release(String assetName) {
+        final Entry entry = mEntries.get(assetName);
+        if (entry == null || entry.refCount == 0) {
+            Log.e(TAG, "Release of " + assetName + " without a matching acquire");
+            return;
+        }
+        if (--entry.refCount == 0) {
+            mIdle.put(assetName, entry);
+            mIdleBytes += entry.sizeBytes;
+            evictIdle(false);
+        }
+    }
+
+    /**
+     Loads the module and runs one forward pass with the given inputs on a background thread.
+     */
+    void warmUp(Context context, String assetName, IValue... inputs) {
+        final Context appContext = context.getApplicationContext();
+        new Thread(() -> {
+            // a warm-up is best effort, a model that fails to load only fails where it is used
+            final Module module;
+            try {
+                module = acquire(appContext, assetName);
+            } catch (RuntimeException | Error e) {
+                Log.e(TAG, "Error on loading " + assetName + " for warm-up", e);
+                return;
+            }
+            try {
+                module.forward(inputs);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error on warming up " + assetName, e);
+            } finally {
+                release(assetName);
+            }
+        }, "ModuleWarmUp").start();
+    }
+
+    private synchronized void evictIdle(boolean all) {
+        final Iterator<Map.Entry<String, Entry>> it = mIdle.entrySet().iterator();
+        while (it.hasNext() && (all || mIdleBytes > IDLE_BUDGET_BYTES)) {
+            final Map.Entry<String, Entry> idle = it.next();
+            it.remove();
+            mEntries.remove(idle.getKey());
+            mIdleBytes -= idle.getValue().sizeBytes;
+            idle.getValue().module.destroy();
+        }
+    }
+
+    private static Module getUninterruptibly(FutureTask<Module> load) throws ExecutionException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return load.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // the size of an uncompressed asset, 0 if it is compressed in the APK and only evicted under memory pressure
+    private static long assetSize(Context context, String assetName) {
+        try (AssetFileDescriptor fd = context.getAssets().openFd(assetName)) {
+            return fd.getLength();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+// Copyright (c) 2020 Facebook, Inc. and its affiliates.
+// All rights reserved.
+//
+// This source code is licensed under the BSD-style license found in the
+// LICENSE file in the root directory of this source tree.
+
+package org.pytorch.demo.objectdetection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ Non-maximum suppression over the candidates of a DetectionBuffer.
+
+ The highest scoring topK candidates are picked with TopK on the primitive scores instead of
+ sorting the whole list. They are then visited from high to low score and a candidate is
+ kept unless it overlaps an already kept box by more than the threshold. Kept
+ boxes are registered in a coarse grid covering the candidates' bounds, so the IOU is only
+ computed against kept boxes sharing a grid cell with the candidate.
+
+ In class-aware mode only boxes of the same class suppress each other, which gives the same
+ result as batched NMS over per-class offset boxes. Instances keep their scratch arrays
+ between calls and are not thread safe.
+ */
+class NonMaxSuppression {
+    private static final int GRID_SIZE = 8;
+
+    private final boolean mClassAware;
+    private final int mTopK;
+
+    // candidate indices ordered from high to low score
+    private int[] mOrder = new int[0];
+    private int[] mKept = new int[0];
+    private int[] mVisitStamp = new int[0];
+    private int mStamp;
+
+    // grid cells are singly linked lists of entries pointing into mKept
+    private final int[] mCellHead = new int[GRID_SIZE * GRID_SIZE];
+    private int[] mEntryNext = new int[0];
+    private int[] mEntryKept = new int[0];
+    private int mEntryCount;
+    private float mMinX, mMinY, mCellWidth, mCellHeight;
+
+    NonMaxSuppression(boolean classAware, int topK) {
+        mClassAware = classAware;
+        mTopK = topK;
+    }
+
+    /**
+     - Parameters:
+     - boxes: the decoded candidates
+     - limit: the maximum number of boxes that will be selected
+     - threshold: used to decide whether boxes overlap too much
+     */
+    ArrayList<Result> run(DetectionBuffer boxes, int limit, float threshold) {
+        ArrayList<Result> selected = new ArrayList<>();
+        if (mOrder.length < boxes.size) {
+            mOrder = new int[boxes.size];
+        }
+        final int count = TopK.topK(boxes.score, boxes.size, mTopK, mOrder);
+        if (count == 0 || limit <= 0) return selected;
+
+        setupGrid(boxes, count);
+        if (mKept.length < limit) {
+            mKept = new int[limit];
+        }
+        if (mVisitStamp.length < limit) {
+            mVisitStamp = new int[limit];
+            mStamp = 0;
+        }
+
+        int numKept = 0;
+        for (int n = 0; n < count && numKept < limit; n++) {
+            final int i = mOrder[n];
+            if (overlapsKept(boxes, i, threshold)) continue;
+
+            mKept[numKept] = i;
+            addToGrid(boxes, numKept);
+            numKept++;
+            selected.add(boxes.toResult(i));
+        }
+        return selected;
+    }
+
+    private boolean overlapsKept(DetectionBuffer boxes, int i, float threshold) {
+        if (++mStamp == Integer.MAX_VALUE) {
+            Arrays.fill(mVisitStamp, 0);
+            mStamp = 1;
+        }
+        final int cx1 = cellX(boxes.x1[i]), cx2 = cellX(boxes.x2[i]);
+        final int cy1 = cellY(boxes.y1[i]), cy2 = cellY(boxes.y2[i]);
+        for (int cy = cy1; cy <= cy2; cy++) {
+            for (int cx = cx1; cx <= cx2; cx++) {
+                for (int e = mCellHead[cy * GRID_SIZE + cx]; e >= 0; e = mEntryNext[e]) {
+                    final int k = mEntryKept[e];
+                    if (mVisitStamp[k] == mStamp) continue;
+                    mVisitStamp[k] = mStamp;
+
+                    final int j = mKept[k];
+                    if (mClassAware && boxes.classIndex[i] != boxes.classIndex[j]) continue;
+                    if (boxes.iou(i, j) > threshold) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void setupGrid(DetectionBuffer boxes, int count) {
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int n = 0; n < count; n++) {
+            final int i = mOrder[n];
+            minX = Math.min(minX, boxes.x1[i]);
+            minY = Math.min(minY, boxes.y1[i]);
+            maxX = Math.max(maxX, boxes.x2[i]);
+            maxY = Math.max(maxY, boxes.y2[i]);
+        }
+        mMinX = minX;
+        mMinY = minY;
+        mCellWidth = Math.max((maxX - minX) / GRID_SIZE, Float.MIN_NORMAL);
+        mCellHeight = Math.max((maxY - minY) / GRID_SIZE, Float.MIN_NORMAL);
+        Arrays.fill(mCellHead, -1);
+        mEntryCount = 0;
+    }
+
+    private void addToGrid(DetectionBuffer boxes, int k) {
+        final int i = mKept[k];
+        final int cx1 = cellX(boxes.x1[i]), cx2 = cellX(boxes.x2[i]);
+        final int cy1 = cellY(boxes.y1[i]), cy2 = cellY(boxes.y2[i]);
+        for (int cy = cy1; cy <= cy2; cy++) {
+            for (int cx = cx1; cx <= cx2; cx++) {
+                if (mEntryCount == mEntryNext.length) {
+                    final int capacity = Math.max(64, mEntryCount * 2);
+                    mEntryNext = Arrays.copyOf(mEntryNext, capacity);
+                    mEntryKept = Arrays.copyOf(mEntryKept, capacity);
+                }
+                final int cell = cy * GRID_SIZE + cx;
+                mEntryKept[mEntryCount] = k;
+                mEntryNext[mEntryCount] = mCellHead[cell];
+                mCellHead[cell] = mEntryCount++;
+            }
+        }
+    }
+
+    private int cellX(float x) {
+        return clampCell((int)((x - mMinX) / mCellWidth));
+    }
+
+    private int cellY(float y) {
+        return clampCell((int)((y - mMinY) / mCellHeight));
+    }
+
+    private static int clampCell(int c) {
+        return c < 0 ? 0 : (c >= GRID_SIZE ? GRID_SIZE - 1 : c);
+    }
+}
@@ -1,14 +1,5 @@
 package org.pytorch.demo.objectdetection;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.ImageFormat;
-import android.graphics.Matrix;
-import android.graphics.Rect;
-import android.graphics.YuvImage;
-import android.media.Image;
-import android.os.Bundle;
-import android.util.Log;
 import android.view.TextureView;
 import android.view.ViewStub;
 
@@ -18,18 +9,17 @@ import androidx.camera.core.ImageProxy;
 
 import org.pytorch.IValue;
 import org.pytorch.Module;
-import org.pytorch.PyTorchAndroid;
 import org.pytorch.Tensor;
-import org.pytorch.torchvision.TensorImageUtils;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 
 public class ObjectDetectionActivity extends AbstractCameraXActivity<ObjectDetectionActivity.AnalysisResult> {
-    private Module mModule = null;
+    private volatile Module mModule = null;
     private ResultView mResultView;
+    // the converter is only used by the preprocess stage, i.e. the camera analyzer thread
+    private YuvTensorConverter mConverter;
+    private final DetectionStages mStages = new DetectionStages();
 
     static class AnalysisResult {
         private final ArrayList<Result> mResults;
@@ -58,53 +48,118 @@ public class ObjectDetectionActivity extends AbstractCameraXActivity<ObjectDetec
         mResultView.invalidate();
     }
 
-    private Bitmap imgToBitmap(Image image) {
-        Image.Plane[] planes = image.getPlanes();
-        ByteBuffer yBuffer = planes[0].getBuffer();
-        ByteBuffer uBuffer = planes[1].getBuffer();
-        ByteBuffer vBuffer = planes[2].getBuffer();
-
-        int ySize = yBuffer.remaining();
-        int uSize = uBuffer.remaining();
-        int vSize = vBuffer.remaining();
-
-        byte[] nv21 = new byte[ySize + uSize + vSize];
-        yBuffer.get(nv21, 0, ySize);
-        vBuffer.get(nv21, ySize, vSize);
-        uBuffer.get(nv21, ySize + vSize, uSize);
-
-        YuvImage yuvImage = new YuvImage(nv21, ImageFormat.NV21, image.getWidth(), image.getHeight(), null);
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        yuvImage.compressToJpeg(new Rect(0, 0, yuvImage.getWidth(), yuvImage.getHeight()), 75, out);
-
-        byte[] imageBytes = out.toByteArray();
-        return BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length);
+    @Override
+    protected AnalysisPipeline<?, AnalysisResult> createAnalysisPipeline() {
+        return new AnalysisPipeline<>(mStages, MIN_ANALYSIS_INTERVAL_MS, MAX_ANALYSIS_INTERVAL_MS);
     }
 
     @Override
     @WorkerThread
     @Nullable
     protected AnalysisResult analyzeImage(ImageProxy image, int rotationDegrees) {
-        if (mModule == null) {
-            mModule = PyTorchAndroid.loadModuleFromAsset(getAssets(), "yolov5s.torchscript.pt");
+        final Frame frame = mStages.preprocess(image, rotationDegrees);
+        if (frame == null) {
+            return null;
+        }
+        mStages.infer(frame);
+        final AnalysisResult result = mStages.postprocess(frame);
+        mStages.recycle(frame);
+        return result;
+    }
+
+    @Override
+    protected void onAnalysisStopped() {
+        if (mModule != null) {
+            ModuleRegistry.getInstance(this).release(PrePostProcessor.MODULE_ASSET_NAME);
+            mModule = null;
+        }
+    }
+
+    static class Frame {
+        // held from preprocess until the forward pass has read it
+        TensorArena.Slot input;
+        Tensor outputTensor;
+        // letterbox transform of this frame
+        float scaleX, scaleY, padX, padY;
+        int rotatedWidth, rotatedHeight;
+    }
+
+    private class DetectionStages implements AnalysisPipeline.Stages<Frame, AnalysisResult> {
+        private final ArrayDeque<Frame> mFramePool = new ArrayDeque<>();
+        // one input is filled on the analyzer thread while the model reads the other
+        private final TensorArena mInputArena = new TensorArena(
+                new long[]{1, 3, PrePostProcessor.mInputHeight, PrePostProcessor.mInputWidth}, 2);
+
+        @Override
+        public Frame preprocess(ImageProxy image, int rotationDegrees) {
+            if (mConverter == null) {
+                mConverter = new YuvTensorConverter(PrePostProcessor.mInputWidth, PrePostProcessor.mInputHeight,
+                        YuvTensorConverter.ScaleMode.LETTERBOX, PrePostProcessor.NO_MEAN_RGB, PrePostProcessor.NO_STD_RGB);
+            }
+            final TensorArena.Slot input = mInputArena.acquire();
+            if (input == null) {
+                // both inputs are waiting for the model, skip this frame
+                return null;
+            }
+            Frame frame;
+            synchronized (mFramePool) {
+                frame = mFramePool.poll();
+            }
+            if (frame == null) {
+                frame = new Frame();
+            }
+            frame.input = input;
+
+            final long startTime = mMetrics.start();
+            mConverter.convert(image.getImage(), 90, input.buffer, 0);
+            mMetrics.record(AnalysisMetrics.Stage.TENSOR_FILL, startTime);
+            frame.scaleX = mConverter.getScaleX();
+            frame.scaleY = mConverter.getScaleY();
+            frame.padX = mConverter.getPadX();
+            frame.padY = mConverter.getPadY();
+            frame.rotatedWidth = mConverter.getRotatedWidth();
+            frame.rotatedHeight = mConverter.getRotatedHeight();
+            return frame;
+        }
+
+        @Override
+        public void infer(Frame frame) {
+            if (mModule == null) {
+                mModule = ModuleRegistry.getInstance(ObjectDetectionActivity.this)
+                        .acquire(ObjectDetectionActivity.this, PrePostProcessor.MODULE_ASSET_NAME);
+            }
+            final long startTime = mMetrics.start();
+            IValue[] outputTuple = mModule.forward(IValue.from(frame.input.tensor)).toTuple();
+            frame.outputTensor = outputTuple[0].toTensor();
+            mMetrics.record(AnalysisMetrics.Stage.FORWARD, startTime);
+            mInputArena.release(frame.input);
+            frame.input = null;
+        }
+
+        @Override
+        public AnalysisResult postprocess(Frame frame) {
+            // model coordinates map back to the rotated camera image through the letterbox scale and padding
+            float imgScaleX = 1.0f / frame.scaleX;
+            float imgScaleY = 1.0f / frame.scaleY;
+            float ivScaleX = (float)mResultView.getWidth() / frame.rotatedWidth;
+            float ivScaleY = (float)mResultView.getHeight() / frame.rotatedHeight;
+            float startX = -ivScaleX * imgScaleX * frame.padX;
+            float startY = -ivScaleY * imgScaleY * frame.padY;
+
+            final ArrayList<Result> results = PrePostProcessor.outputsToNMSPredictions(frame.outputTensor, imgScaleX, imgScaleY, ivScaleX, ivScaleY, startX, startY, mMetrics);
+            return new AnalysisResult(results);
+        }
+
+        @Override
+        public void recycle(Frame frame) {
+            if (frame.input != null) {
+                mInputArena.release(frame.input);
+                frame.input = null;
+            }
+            frame.outputTensor = null;
+            synchronized (mFramePool) {
+                mFramePool.push(frame);
+            }
         }
-        Bitmap bitmap = imgToBitmap(image.getImage());
-        Matrix matrix = new Matrix();
-        matrix.postRotate(90.0f);
-        bitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
-        Bitmap resizedBitmap = Bitmap.createScaledBitmap(bitmap, PrePostProcessor.mInputWidth, PrePostProcessor.mInputHeight, true);
-
-        final Tensor inputTensor = TensorImageUtils.bitmapToFloat32Tensor(resizedBitmap, PrePostProcessor.NO_MEAN_RGB, PrePostProcessor.NO_STD_RGB);
-        IValue[] outputTuple = mModule.forward(IValue.from(inputTensor)).toTuple();
-        final Tensor outputTensor = outputTuple[0].toTensor();
-        final float[] outputs = outputTensor.getDataAsFloatArray();
-
-        float imgScaleX = (float)bitmap.getWidth() / PrePostProcessor.mInputWidth;
-        float imgScaleY = (float)bitmap.getHeight() / PrePostProcessor.mInputHeight;
-        float ivScaleX = (float)mResultView.getWidth() / bitmap.getWidth();
-        float ivScaleY = (float)mResultView.getHeight() / bitmap.getHeight();
-
-        final ArrayList<Result> results = PrePostProcessor.outputsToNMSPredictions(outputs, imgScaleX, imgScaleY, ivScaleX, ivScaleY, 0, 0);
-        return new AnalysisResult(results);
     }
 }
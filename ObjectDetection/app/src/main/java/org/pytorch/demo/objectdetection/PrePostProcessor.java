@@ -8,40 +8,61 @@ package org.pytorch.demo.objectdetection;
 
 import android.graphics.Rect;
 
+import androidx.annotation.Nullable;
+
+import org.pytorch.Tensor;
+
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 
-class Result {
-    int classIndex;
-    Float score;
-    Rect rect;
-
-    public Result(int cls, Float output, Rect rect) {
-        this.classIndex = cls;
-        this.score = output;
-        this.rect = rect;
-    }
-};
-
 public class PrePostProcessor {
     // for yolov5 model, no need to apply MEAN and STD
     static float[] NO_MEAN_RGB = new float[] {0.0f, 0.0f, 0.0f};
     static float[] NO_STD_RGB = new float[] {1.0f, 1.0f, 1.0f};
 
+    static final String MODULE_ASSET_NAME = "yolov5s.torchscript.pt";
+
     // model input image size
     static int mInputWidth = 640;
     static int mInputHeight = 640;
 
-    // model output is of size 25200*85
-    private static int mOutputRow = 25200; // as decided by the YOLOv5 model for input image of size 640*640
-    private static int mOutputColumn = 85; // left, top, right, bottom, score and 80 class probability
+    // model output is of size rows*columns, e.g. 25200*85 for a 640*640 input: center x, center y,
+    // width, height, objectness and 80 class probabilities; YoloDecoder reads both from the tensor
     private static float mThreshold = 0.30f; // score above which a detection is generated
     private static int mNmsLimit = 15;
+    private static int mNmsTopK = 1000; // candidates considered by non-maximum suppression
+    static boolean mClassAwareNms = false; // only suppress overlapping boxes of the same class
 
     static String[] mClasses;
 
+    // decoded candidates are kept per analyzer thread and reused from frame to frame
+    private static final ThreadLocal<DetectionBuffer> sCandidates = new ThreadLocal<DetectionBuffer>() {
+        @Override
+        protected DetectionBuffer initialValue() {
+            return new DetectionBuffer(256);
+        }
+    };
+    private static final ThreadLocal<YoloDecoder> sDecoder = new ThreadLocal<YoloDecoder>() {
+        @Override
+        protected YoloDecoder initialValue() {
+            return new YoloDecoder();
+        }
+    };
+    private static final ThreadLocal<NonMaxSuppression> sAgnosticNms = new ThreadLocal<NonMaxSuppression>() {
+        @Override
+        protected NonMaxSuppression initialValue() {
+            return new NonMaxSuppression(false, mNmsTopK);
+        }
+    };
+    private static final ThreadLocal<NonMaxSuppression> sClassAwareNms = new ThreadLocal<NonMaxSuppression>() {
+        @Override
+        protected NonMaxSuppression initialValue() {
+            return new NonMaxSuppression(true, mNmsTopK);
+        }
+    };
+
     // The two methods nonMaxSuppression and IOU below are ported from https://github.com/hollance/YOLO-CoreML-MPSNNGraph/blob/master/Common/Helpers.swift
     /**
      Removes bounding boxes that overlap too much with other boxes that have
@@ -58,7 +79,7 @@ public class PrePostProcessor {
                 new Comparator<Result>() {
                     @Override
                     public int compare(Result o1, Result o2) {
-                        return o1.score.compareTo(o2.score);
+                        return o2.score.compareTo(o1.score);
                     }
                 });
 
@@ -116,34 +137,20 @@ public class PrePostProcessor {
         return intersectionArea / (areaA + areaB - intersectionArea);
     }
 
-    static ArrayList<Result> outputsToNMSPredictions(float[] outputs, float imgScaleX, float imgScaleY, float ivScaleX, float ivScaleY, float startX, float startY) {
-        ArrayList<Result> results = new ArrayList<>();
-        for (int i = 0; i< mOutputRow; i++) {
-            if (outputs[i* mOutputColumn +4] > mThreshold) {
-                float x = outputs[i* mOutputColumn];
-                float y = outputs[i* mOutputColumn +1];
-                float w = outputs[i* mOutputColumn +2];
-                float h = outputs[i* mOutputColumn +3];
-
-                float left = imgScaleX * (x - w/2);
-                float top = imgScaleY * (y - h/2);
-                float right = imgScaleX * (x + w/2);
-                float bottom = imgScaleY * (y + h/2);
-
-                float max = outputs[i* mOutputColumn +5];
-                int cls = 0;
-                for (int j = 0; j < mOutputColumn -5; j++) {
-                    if (outputs[i* mOutputColumn +5+j] > max) {
-                        max = outputs[i* mOutputColumn +5+j];
-                        cls = j;
-                    }
-                }
+    static ArrayList<Result> outputsToNMSPredictions(Tensor outputTensor, float imgScaleX, float imgScaleY, float ivScaleX, float ivScaleY, float startX, float startY) {
+        return outputsToNMSPredictions(outputTensor, imgScaleX, imgScaleY, ivScaleX, ivScaleY, startX, startY, null);
+    }
 
-                Rect rect = new Rect((int)(startX+ivScaleX*left), (int)(startY+top*ivScaleY), (int)(startX+ivScaleX*right), (int)(startY+ivScaleY*bottom));
-                Result result = new Result(cls, outputs[i*85+4], rect);
-                results.add(result);
-            }
-        }
-        return nonMaxSuppression(results, mNmsLimit, mThreshold);
+    static ArrayList<Result> outputsToNMSPredictions(Tensor outputTensor, float imgScaleX, float imgScaleY, float ivScaleX, float ivScaleY, float startX, float startY,
+                                                     @Nullable AnalysisMetrics metrics) {
+        long time = metrics != null ? metrics.start() : 0;
+        final DetectionBuffer candidates = sCandidates.get();
+        sDecoder.get().decode(outputTensor, mThreshold, imgScaleX, imgScaleY, ivScaleX, ivScaleY, startX, startY, candidates);
+        if (metrics != null) time = metrics.record(AnalysisMetrics.Stage.DECODE, time);
+
+        final NonMaxSuppression nms = mClassAwareNms ? sClassAwareNms.get() : sAgnosticNms.get();
+        final ArrayList<Result> results = nms.run(candidates, mNmsLimit, mThreshold);
+        if (metrics != null) metrics.record(AnalysisMetrics.Stage.NMS, time);
+        return results;
     }
 }
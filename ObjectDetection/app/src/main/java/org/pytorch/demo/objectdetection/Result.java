@@ -0,0 +1,21 @@
+// Copyright (c) 2020 Facebook, Inc. and its affiliates.
+// All rights reserved.
+//
+// This source code is licensed under the BSD-style license found in the
+// LICENSE file in the root directory of this source tree.
+
+package org.pytorch.demo.objectdetection;
+
+import android.graphics.Rect;
+
+class Result {
+    int classIndex;
+    Float score;
+    Rect rect;
+
+    public Result(int cls, Float output, Rect rect) {
+        this.classIndex = cls;
+        this.score = output;
+        this.rect = rect;
+    }
+};
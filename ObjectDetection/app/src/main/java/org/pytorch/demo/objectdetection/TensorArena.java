@@ -0,0 +1,68 @@
+// Copyright (c) 2020 Facebook, Inc. and its affiliates.
+// All rights reserved.
+//
+// This source code is licensed under the BSD-style license found in the
+// LICENSE file in the root directory of this source tree.
+
+package org.pytorch.demo.objectdetection;
+
+import androidx.annotation.Nullable;
+
+import org.pytorch.Tensor;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayDeque;
+
+/**
+ A fixed number of direct float buffers of one tensor shape, each wrapped in a Tensor once and
+ reused frame to frame instead of allocating a new native buffer per frame. With two slots a
+ preprocessor can fill one while the model reads the other. Slots are allocated on first use.
+ Thread safe.
+ */
+class TensorArena {
+    static class Slot {
+        final FloatBuffer buffer;
+        final Tensor tensor;
+
+        private Slot(long[] shape, int numElements) {
+            buffer = Tensor.allocateFloatBuffer(numElements);
+            tensor = Tensor.fromBlob(buffer, shape);
+        }
+    }
+
+    private final long[] mShape;
+    private final int mNumElements;
+    private final int mCapacity;
+    private final ArrayDeque<Slot> mFree = new ArrayDeque<>();
+    private int mAllocated;
+
+    TensorArena(long[] shape, int capacity) {
+        mShape = shape.clone();
+        long numElements = 1;
+        for (long dim : shape) {
+            numElements *= dim;
+        }
+        if (numElements > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Tensor of " + numElements + " elements is too large");
+        }
+        mNumElements = (int)numElements;
+        mCapacity = capacity;
+    }
+
+    /**
+     Returns a free slot, or null if all of them are in use.
+     */
+    @Nullable
+    synchronized Slot acquire() {
+        Slot slot = mFree.poll();
+        if (slot == null && mAllocated < mCapacity) {
+            slot = new Slot(mShape, mNumElements);
+            mAllocated++;
+        }
+        return slot;
+    }
+
+    synchronized void release(Slot slot) {
+        mFree.push(slot);
+    }
+}
@@ -0,0 +1,71 @@
+// Copyright (c) 2020 Facebook, Inc. and its affiliates.
+// All rights reserved.
+//
+// This source code is licensed under the BSD-style license found in the
+// LICENSE file in the root directory of this source tree.
+
+package org.pytorch.demo.objectdetection;
+
+import org.pytorch.Tensor;
+
+/**
+ Decodes a YOLOv5 output of shape [1, rows, columns], where each row holds center x, center y,
+ width, height, objectness and one score per class. The row and column counts are read from
+ the output tensor, so exports for other input sizes or class counts need no code changes.
+
+ The first pass only reads the objectness column and records the rows above the threshold;
+ box conversion and the class argmax run for those rows only. Instances keep their scratch
+ array between calls and are not thread safe.
+ */
+class YoloDecoder {
+    private static final int OBJECTNESS_COLUMN = 4;
+    private static final int FIRST_CLASS_COLUMN = 5;
+
+    private int[] mHits = new int[0];
+
+    void decode(Tensor outputTensor, float threshold, float imgScaleX, float imgScaleY, float ivScaleX, float ivScaleY, float startX, float startY, DetectionBuffer candidates) {
+        final long[] shape = outputTensor.shape();
+        if (shape.length < 2) {
+            throw new IllegalArgumentException("Unexpected YOLO output shape of rank " + shape.length);
+        }
+        final int rows = (int)shape[shape.length - 2];
+        final int columns = (int)shape[shape.length - 1];
+        decode(outputTensor.getDataAsFloatArray(), rows, columns, threshold, imgScaleX, imgScaleY, ivScaleX, ivScaleY, startX, startY, candidates);
+    }
+
+    void decode(float[] outputs, int rows, int columns, float threshold, float imgScaleX, float imgScaleY, float ivScaleX, float ivScaleY, float startX, float startY, DetectionBuffer candidates) {
+        if (columns <= FIRST_CLASS_COLUMN) {
+            throw new IllegalArgumentException("YOLO output needs more than " + FIRST_CLASS_COLUMN + " columns, got " + columns);
+        }
+        candidates.clear();
+        if (mHits.length < rows) {
+            mHits = new int[rows];
+        }
+
+        final int[] hits = mHits;
+        int numHits = 0;
+        for (int i = 0, o = OBJECTNESS_COLUMN; i < rows; i++, o += columns) {
+            if (outputs[o] > threshold) {
+                hits[numHits++] = i;
+            }
+        }
+
+        for (int n = 0; n < numHits; n++) {
+            final int offset = hits[n] * columns;
+            final float x = outputs[offset];
+            final float y = outputs[offset + 1];
+            final float w = outputs[offset + 2];
+            final float h = outputs[offset + 3];
+
+            final float left = imgScaleX * (x - w/2);
+            final float top = imgScaleY * (y - h/2);
+            final float right = imgScaleX * (x + w/2);
+            final float bottom = imgScaleY * (y + h/2);
+
+            final int best = TopK.argmax(outputs, offset + FIRST_CLASS_COLUMN, offset + columns);
+
+            candidates.add(startX + ivScaleX * left, startY + ivScaleY * top, startX + ivScaleX * right, startY + ivScaleY * bottom,
+                    outputs[offset + OBJECTNESS_COLUMN], best - offset - FIRST_CLASS_COLUMN);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+// Copyright (c) 2020 Facebook, Inc. and its affiliates.
+// All rights reserved.
+//
+// This source code is licensed under the BSD-style license found in the
+// LICENSE file in the root directory of this source tree.
+
+package org.pytorch.demo.objectdetection;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ Checks NonMaxSuppression against the list-based PrePostProcessor.nonMaxSuppression on random
+ boxes. Boxes have integer coordinates, so the float IOU of the engine and the Rect IOU of the
+ reference see the same values. Runs on Robolectric for android.graphics.Rect.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class NonMaxSuppressionTest {
+    private static final int NUM_CLASSES = 5;
+    // boxes of different classes never overlap once shifted this far apart
+    private static final int CLASS_OFFSET = 1000;
+
+    @Test
+    public void classAgnosticMatchesReference() {
+        final Random random = new Random(1);
+        for (int trial = 0; trial < 200; trial++) {
+            checkTrial(random, false);
+        }
+    }
+
+    @Test
+    public void classAwareMatchesReference() {
+        final Random random = new Random(2);
+        for (int trial = 0; trial < 200; trial++) {
+            checkTrial(random, true);
+        }
+    }
+
+    @Test
+    public void emptyAndZeroLimit() {
+        final NonMaxSuppression nms = new NonMaxSuppression(false, 100);
+        final DetectionBuffer boxes = new DetectionBuffer(4);
+        assertEquals(0, nms.run(boxes, 10, 0.5f).size());
+
+        boxes.add(0, 0, 10, 10, 0.9f, 0);
+        assertEquals(0, nms.run(boxes, 0, 0.5f).size());
+        assertEquals(1, nms.run(boxes, 10, 0.5f).size());
+    }
+
+    @Test
+    public void classAwareKeepsOverlappingBoxesOfOtherClasses() {
+        final DetectionBuffer boxes = new DetectionBuffer(4);
+        boxes.add(0, 0, 100, 100, 0.9f, 0);
+        boxes.add(5, 5, 100, 100, 0.8f, 1);
+        boxes.add(5, 0, 100, 100, 0.7f, 0);
+
+        final ArrayList<Result> aware = new NonMaxSuppression(true, 100).run(boxes, 10, 0.5f);
+        assertEquals(2, aware.size());
+        assertEquals(0, aware.get(0).classIndex);
+        assertEquals(1, aware.get(1).classIndex);
+
+        final ArrayList<Result> agnostic = new NonMaxSuppression(false, 100).run(boxes, 10, 0.5f);
+        assertEquals(1, agnostic.size());
+    }
+
+    private static void checkTrial(Random random, boolean classAware) {
+        final int count = 1 + random.nextInt(400);
+        final DetectionBuffer boxes = new DetectionBuffer(16);
+        for (int i = 0; i < count; i++) {
+            final int left = random.nextInt(640);
+            final int top = random.nextInt(640);
+            final int right = left + random.nextInt(200);
+            final int bottom = top + random.nextInt(200);
+            // few distinct scores, so ties are common
+            final float score = (1 + random.nextInt(count / 4 + 1)) / (float)(count / 4 + 1);
+            boxes.add(left, top, right, bottom, score, random.nextInt(NUM_CLASSES));
+        }
+        final int topK = random.nextBoolean() ? count : 1 + random.nextInt(count);
+        final int limit = 1 + random.nextInt(count);
+        final float threshold = 0.1f + 0.8f * random.nextFloat();
+
+        final ArrayList<Result> actual = new NonMaxSuppression(classAware, topK).run(boxes, limit, threshold);
+        final List<Result> expected = reference(boxes, classAware, topK, limit, threshold);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).classIndex, actual.get(i).classIndex);
+            assertEquals(expected.get(i).score, actual.get(i).score);
+            assertEquals(expected.get(i).rect, actual.get(i).rect);
+        }
+    }
+
+    // the list-based NMS over the topK highest scores; class-aware mode shifts every class onto
+    // its own area, as batched NMS does, and shifts the selected boxes back
+    private static List<Result> reference(DetectionBuffer boxes, boolean classAware, int topK, int limit,
+                                          float threshold) {
+        final ArrayList<Result> candidates = new ArrayList<>();
+        for (int i = 0; i < boxes.size; i++) {
+            final Result result = boxes.toResult(i);
+            if (classAware) {
+                result.rect.offset(result.classIndex * CLASS_OFFSET, 0);
+            }
+            candidates.add(result);
+        }
+        // a stable sort keeps the first of equal scores first, like TopK and the reference itself
+        Collections.sort(candidates, (a, b) -> b.score.compareTo(a.score));
+        final ArrayList<Result> top = new ArrayList<>(candidates.subList(0, Math.min(topK, candidates.size())));
+
+        final ArrayList<Result> selected = PrePostProcessor.nonMaxSuppression(top, limit, threshold);
+        for (Result result : selected) {
+            if (classAware) {
+                result.rect.offset(-result.classIndex * CLASS_OFFSET, 0);
+            }
+        }
+        return selected;
+    }
+}
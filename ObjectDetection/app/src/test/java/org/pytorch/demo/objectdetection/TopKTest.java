@@ -0,0 +1,119 @@
+// Copyright (c) 2020 Facebook, Inc. and its affiliates.
+// All rights reserved.
+//
+// This source code is licensed under the BSD-style license found in the
+// LICENSE file in the root directory of this source tree.
+
+package org.pytorch.demo.objectdetection;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ Checks TopK against a stable descending sort of the indices, on scores with many ties, for k
+ small enough for the bounded heap and large enough for partitioning.
+ */
+public class TopKTest {
+
+    @Test
+    public void heapPathMatchesStableSort() {
+        final Random random = new Random(1);
+        for (int trial = 0; trial < 500; trial++) {
+            final float[] scores = randomScores(random, 1 + random.nextInt(300));
+            // at most 16, or at most an eighth of the scores
+            final int k = random.nextBoolean()
+                    ? 1 + random.nextInt(16)
+                    : 1 + random.nextInt(Math.max(1, scores.length / 8));
+            assertTopK(scores, scores.length, k);
+        }
+    }
+
+    @Test
+    public void partitionPathMatchesStableSort() {
+        final Random random = new Random(2);
+        for (int trial = 0; trial < 500; trial++) {
+            final float[] scores = randomScores(random, 17 + random.nextInt(300));
+            // above 16 and above an eighth of the scores, up to all of them
+            final int min = Math.max(17, scores.length / 8 + 1);
+            final int k = min + random.nextInt(scores.length - min + 1);
+            assertTopK(scores, scores.length, k);
+        }
+    }
+
+    @Test
+    public void allTiesKeepIndexOrder() {
+        final float[] scores = new float[100];
+        Arrays.fill(scores, 0.5f);
+        assertTopK(scores, scores.length, 5);
+        assertTopK(scores, scores.length, 60);
+        assertArrayEquals(new int[] {0, 1, 2}, TopK.topK(scores, 3));
+    }
+
+    @Test
+    public void onlyConsidersCount() {
+        final float[] scores = {0.1f, 0.9f, 0.5f, 1.0f, 0.7f};
+        final int[] order = new int[scores.length];
+        assertEquals(3, TopK.topK(scores, 3, 10, order));
+        assertArrayEquals(new int[] {1, 2, 0}, Arrays.copyOf(order, 3));
+        assertTopK(scores, 3, 2);
+    }
+
+    @Test
+    public void emptySelection() {
+        final float[] scores = {0.1f, 0.9f};
+        assertEquals(0, TopK.topK(scores, 2, 0, new int[2]));
+        assertEquals(0, TopK.topK(scores, 0, 5, new int[2]));
+        assertEquals(0, TopK.topK(new float[0], 3).length);
+    }
+
+    @Test
+    public void argmaxReturnsFirstMaximum() {
+        final Random random = new Random(3);
+        for (int trial = 0; trial < 500; trial++) {
+            final float[] scores = randomScores(random, 1 + random.nextInt(40));
+            final int from = random.nextInt(scores.length);
+            final int to = from + 1 + random.nextInt(scores.length - from);
+            int expected = from;
+            for (int i = from + 1; i < to; i++) {
+                if (scores[i] > scores[expected]) expected = i;
+            }
+            assertEquals(expected, TopK.argmax(scores, from, to));
+        }
+        assertEquals(-1, TopK.argmax(new float[3], 2, 2));
+    }
+
+    private static void assertTopK(float[] scores, int count, int k) {
+        final int[] order = new int[count];
+        final int n = TopK.topK(scores, count, k, order);
+        final int[] expected = stableTopK(scores, count, k);
+        assertArrayEquals("k=" + k + " of " + count, expected, Arrays.copyOf(order, n));
+    }
+
+    private static int[] stableTopK(float[] scores, int count, int k) {
+        final Integer[] indices = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            indices[i] = i;
+        }
+        Arrays.sort(indices, (a, b) -> Float.compare(scores[b], scores[a]));
+        final int[] top = new int[Math.max(0, Math.min(k, count))];
+        for (int i = 0; i < top.length; i++) {
+            top[i] = indices[i];
+        }
+        return top;
+    }
+
+    // scores from a small set of values, so most of them tie with others
+    private static float[] randomScores(Random random, int length) {
+        final int levels = 1 + random.nextInt(Math.max(1, length / 3));
+        final float[] scores = new float[length];
+        for (int i = 0; i < length; i++) {
+            scores[i] = random.nextInt(levels) / (float)levels;
+        }
+        return scores;
+    }
+}
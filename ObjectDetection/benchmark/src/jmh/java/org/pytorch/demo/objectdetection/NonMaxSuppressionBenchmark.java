@@ -0,0 +1,73 @@
+// Copyright (c) 2020 Facebook, Inc. and its affiliates.
+// All rights reserved.
+//
+// This source code is licensed under the BSD-style license found in the
+// LICENSE file in the root directory of this source tree.
+
+package org.pytorch.demo.objectdetection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ NonMaxSuppression over 100, 1k and 10k decoded candidates, with the app's settings: the
+ 1000 highest scores, at most 15 boxes and a 0.30 overlap threshold. Candidates cluster around
+ a few objects with jittered boxes, like the output of a YOLO model.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NonMaxSuppressionBenchmark {
+    private static final int NUM_OBJECTS = 20;
+    private static final int NUM_CLASSES = 80;
+
+    @Param({"100", "1000", "10000"})
+    public int candidates;
+
+    @Param({"false", "true"})
+    public boolean classAware;
+
+    private DetectionBuffer mBoxes;
+    private NonMaxSuppression mNms;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(42);
+        mBoxes = new DetectionBuffer(candidates);
+        for (int i = 0; i < candidates; i++) {
+            final int object = random.nextInt(NUM_OBJECTS);
+            // objects are spread over a 640x640 input with a fixed size per object
+            final Random objectRandom = new Random(object);
+            final float cx = 640 * objectRandom.nextFloat();
+            final float cy = 640 * objectRandom.nextFloat();
+            final float w = 20 + 200 * objectRandom.nextFloat();
+            final float h = 20 + 200 * objectRandom.nextFloat();
+            final float jx = cx + 0.1f * w * (float)random.nextGaussian();
+            final float jy = cy + 0.1f * h * (float)random.nextGaussian();
+            mBoxes.add(jx - w / 2, jy - h / 2, jx + w / 2, jy + h / 2,
+                    0.3f + 0.7f * random.nextFloat(), objectRandom.nextInt(NUM_CLASSES));
+        }
+        mNms = new NonMaxSuppression(classAware, 1000);
+    }
+
+    @Benchmark
+    public ArrayList<Result> nonMaxSuppression() {
+        return mNms.run(mBoxes, 15, 0.30f);
+    }
+}
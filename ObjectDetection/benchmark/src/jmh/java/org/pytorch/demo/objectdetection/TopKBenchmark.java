@@ -0,0 +1,69 @@
+// Copyright (c) 2020 Facebook, Inc. and its affiliates.
+// All rights reserved.
+//
+// This source code is licensed under the BSD-style license found in the
+// LICENSE file in the root directory of this source tree.
+
+package org.pytorch.demo.objectdetection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ TopK selection against sorting all indices by score, the way the apps ranked scores before.
+ k of 5 and 15 takes the heap path, k of 1000 the partition path for the larger counts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TopKBenchmark {
+    @Param({"1000", "25200"})
+    public int count;
+
+    @Param({"5", "15", "1000"})
+    public int k;
+
+    private float[] mScores;
+    private int[] mOrder;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(42);
+        mScores = new float[count];
+        for (int i = 0; i < count; i++) {
+            mScores[i] = random.nextFloat();
+        }
+        mOrder = new int[count];
+    }
+
+    @Benchmark
+    public int topK() {
+        return TopK.topK(mScores, count, k, mOrder);
+    }
+
+    @Benchmark
+    public Integer[] sortAll() {
+        final Integer[] indices = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            indices[i] = i;
+        }
+        Arrays.sort(indices, (a, b) -> Float.compare(mScores[b], mScores[a]));
+        return indices;
+    }
+}
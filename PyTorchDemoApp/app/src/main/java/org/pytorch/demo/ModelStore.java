@@ -0,0 +1,18 @@
+package org.pytorch.demo;
+
+import android.content.Context;
+
+import org.pytorch.Module;
+import org.pytorch.PyTorchAndroid;
+
+/**
+ Hands model assets to the PyTorch loader without copying them out of the APK.
+
+ load() passes the asset straight to the native loader, which maps it from the APK when it is
+ stored uncompressed (see aaptOptions.noCompress in build.gradle), so no file is written at all.
+ */
+public class ModelStore {
+  public static Module load(Context context, String assetName) {
+    return PyTorchAndroid.loadModuleFromAsset(context.getAssets(), assetName);
+  }
+}
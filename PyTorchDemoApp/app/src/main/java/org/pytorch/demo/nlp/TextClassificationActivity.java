@@ -12,11 +12,11 @@ import org.pytorch.Module;
 import org.pytorch.Tensor;
 import org.pytorch.demo.BaseModuleActivity;
 import org.pytorch.demo.InfoViewFactory;
+import org.pytorch.demo.ModuleRegistry;
 import org.pytorch.demo.R;
-import org.pytorch.demo.Utils;
+import org.pytorch.demo.TopK;
 import org.pytorch.demo.vision.view.ResultRowView;
 
-import java.io.File;
 import java.nio.charset.Charset;
 import java.util.Locale;
 
@@ -35,7 +35,7 @@ public class TextClassificationActivity extends BaseModuleActivity {
   private View mResultContent;
   private ResultRowView[] mResultRowViews = new ResultRowView[3];
 
-  private Module mModule;
+  private volatile Module mModule;
   private String mModuleAssetName;
 
   private String mLastBgHandledText;
@@ -108,9 +108,7 @@ public class TextClassificationActivity extends BaseModuleActivity {
   @Nullable
   private AnalysisResult analyzeText(final String text) {
     if (mModule == null) {
-      final String moduleFileAbsoluteFilePath = new File(
-          Utils.assetFilePath(this, getModuleAssetName())).getAbsolutePath();
-      mModule = Module.load(moduleFileAbsoluteFilePath);
+      mModule = ModuleRegistry.getInstance(this).acquire(this, getModuleAssetName());
 
       final IValue getClassesOutput = mModule.runMethod("get_classes");
 
@@ -130,7 +128,7 @@ public class TextClassificationActivity extends BaseModuleActivity {
 
     final Tensor outputTensor = mModule.forward(IValue.from(inputTensor)).toTensor();
     final float[] scores = outputTensor.getDataAsFloatArray();
-    final int[] ixs = Utils.topK(scores, TOP_K);
+    final int[] ixs = TopK.topK(scores, TOP_K);
 
     final String[] topKClassNames = new String[TOP_K];
     final float[] topKScores = new float[TOP_K];
@@ -173,7 +171,8 @@ public class TextClassificationActivity extends BaseModuleActivity {
   protected void onDestroy() {
     super.onDestroy();
     if (mModule != null) {
-      mModule.destroy();
+      ModuleRegistry.getInstance(this).release(getModuleAssetName());
+      mModule = null;
     }
   }
 
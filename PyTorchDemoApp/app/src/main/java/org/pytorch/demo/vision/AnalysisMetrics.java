@@ -0,0 +1,97 @@
+package org.pytorch.demo.vision;
+
+import android.os.Build;
+import android.os.SystemClock;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ Per-stage latency histograms for camera analysis. Stages are timed with start/record pairs:
+
+   long t = metrics.start();
+   ...
+   t = metrics.record(AnalysisMetrics.Stage.FORWARD, t);
+
+ record returns the current time so consecutive stages can be chained. Latencies are kept in
+ microseconds and recording does not allocate. Snapshots with p50/p90/p99/max per stage can
+ be exported as JSON to compare devices and model builds offline.
+ */
+class AnalysisMetrics {
+  enum Stage {
+    PLANE_COPY,
+    COLOR_CONVERSION,
+    TENSOR_FILL,
+    FORWARD,
+    DECODE,
+    NMS,
+    UI_POST
+  }
+
+  private static final Stage[] STAGES = Stage.values();
+
+  private final String mName;
+  private final LatencyHistogram[] mHistograms = new LatencyHistogram[STAGES.length];
+
+  AnalysisMetrics(String name) {
+    mName = name;
+    for (int i = 0; i < mHistograms.length; i++) {
+      mHistograms[i] = new LatencyHistogram();
+    }
+  }
+
+  long start() {
+    return SystemClock.elapsedRealtimeNanos();
+  }
+
+  long record(Stage stage, long startNanos) {
+    final long now = SystemClock.elapsedRealtimeNanos();
+    mHistograms[stage.ordinal()].record((now - startNanos) / 1000);
+    return now;
+  }
+
+  LatencyHistogram getHistogram(Stage stage) {
+    return mHistograms[stage.ordinal()];
+  }
+
+  void reset() {
+    for (LatencyHistogram histogram : mHistograms) {
+      histogram.reset();
+    }
+  }
+
+  JSONObject toJson() throws JSONException {
+    final JSONObject stages = new JSONObject();
+    for (Stage stage : STAGES) {
+      final LatencyHistogram histogram = mHistograms[stage.ordinal()];
+      if (histogram.getTotalCount() == 0) continue;
+      stages.put(stage.name().toLowerCase(), new JSONObject()
+          .put("count", histogram.getTotalCount())
+          .put("mean_us", histogram.getMean())
+          .put("p50_us", histogram.getValueAtPercentile(50))
+          .put("p90_us", histogram.getValueAtPercentile(90))
+          .put("p99_us", histogram.getValueAtPercentile(99))
+          .put("max_us", histogram.getMax()));
+    }
+    return new JSONObject()
+        .put("name", mName)
+        .put("device", Build.MANUFACTURER + " " + Build.MODEL)
+        .put("sdk", Build.VERSION.SDK_INT)
+        .put("stages", stages);
+  }
+
+  void exportJson(File file) throws IOException {
+    try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+      writer.write(toJson().toString(2));
+    } catch (JSONException e) {
+      throw new IOException(e);
+    }
+  }
+}
@@ -13,16 +13,14 @@ import org.pytorch.IValue;
 import org.pytorch.Module;
 import org.pytorch.Tensor;
 import org.pytorch.demo.Constants;
+import org.pytorch.demo.ModuleRegistry;
 import org.pytorch.demo.R;
-import org.pytorch.demo.Utils;
+import org.pytorch.demo.TopK;
 import org.pytorch.demo.vision.view.ResultRowView;
 import org.pytorch.torchvision.TensorImageUtils;
 
-import java.io.File;
 import java.nio.FloatBuffer;
-import java.util.LinkedList;
 import java.util.Locale;
-import java.util.Queue;
 
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
@@ -64,12 +62,14 @@ public class ImageClassificationActivity extends AbstractCameraXActivity<ImageCl
   private TextView mFpsText;
   private TextView mMsText;
   private TextView mMsAvgText;
-  private Module mModule;
+  private volatile Module mModule;
   private String mModuleAssetName;
   private FloatBuffer mInputTensorBuffer;
   private Tensor mInputTensor;
   private long mMovingAvgSum = 0;
-  private Queue<Long> mMovingAvgQueue = new LinkedList<>();
+  private final long[] mMovingAvgWindow = new long[MOVING_AVG_PERIOD];
+  private int mMovingAvgIndex = 0;
+  private int mMovingAvgCount = 0;
 
   @Override
   protected int getContentViewLayoutId() {
@@ -98,14 +98,20 @@ public class ImageClassificationActivity extends AbstractCameraXActivity<ImageCl
     mFpsText = findViewById(R.id.image_classification_fps_text);
     mMsText = findViewById(R.id.image_classification_ms_text);
     mMsAvgText = findViewById(R.id.image_classification_ms_avg_text);
+
+    // load the model and run it once while the camera starts
+    ModuleRegistry.getInstance(this).warmUp(this, getModuleAssetName(),
+        IValue.from(Tensor.fromBlob(new float[3 * INPUT_TENSOR_WIDTH * INPUT_TENSOR_HEIGHT],
+            new long[]{1, 3, INPUT_TENSOR_HEIGHT, INPUT_TENSOR_WIDTH})));
   }
 
   @Override
   protected void applyToUiAnalyzeImageResult(AnalysisResult result) {
-    mMovingAvgSum += result.moduleForwardDuration;
-    mMovingAvgQueue.add(result.moduleForwardDuration);
-    if (mMovingAvgQueue.size() > MOVING_AVG_PERIOD) {
-      mMovingAvgSum -= mMovingAvgQueue.remove();
+    mMovingAvgSum += result.moduleForwardDuration - mMovingAvgWindow[mMovingAvgIndex];
+    mMovingAvgWindow[mMovingAvgIndex] = result.moduleForwardDuration;
+    mMovingAvgIndex = (mMovingAvgIndex + 1) % MOVING_AVG_PERIOD;
+    if (mMovingAvgCount < MOVING_AVG_PERIOD) {
+      mMovingAvgCount++;
     }
 
     for (int i = 0; i < TOP_K; i++) {
@@ -125,7 +131,7 @@ public class ImageClassificationActivity extends AbstractCameraXActivity<ImageCl
       mFpsText.setVisibility(View.VISIBLE);
     }
 
-    if (mMovingAvgQueue.size() == MOVING_AVG_PERIOD) {
+    if (mMovingAvgCount == MOVING_AVG_PERIOD) {
       float avgMs = (float) mMovingAvgSum / MOVING_AVG_PERIOD;
       mMsAvgText.setText(String.format(Locale.US, FORMAT_AVG_MS, avgMs));
       if (mMsAvgText.getVisibility() != View.VISIBLE) {
@@ -161,9 +167,7 @@ public class ImageClassificationActivity extends AbstractCameraXActivity<ImageCl
 
     try {
       if (mModule == null) {
-        final String moduleFileAbsoluteFilePath = new File(
-            Utils.assetFilePath(this, getModuleAssetName())).getAbsolutePath();
-        mModule = Module.load(moduleFileAbsoluteFilePath);
+        mModule = ModuleRegistry.getInstance(this).acquire(this, getModuleAssetName());
 
         mInputTensorBuffer =
             Tensor.allocateFloatBuffer(3 * INPUT_TENSOR_WIDTH * INPUT_TENSOR_HEIGHT);
@@ -171,19 +175,22 @@ public class ImageClassificationActivity extends AbstractCameraXActivity<ImageCl
       }
 
       final long startTime = SystemClock.elapsedRealtime();
+      long time = mMetrics.start();
       TensorImageUtils.imageYUV420CenterCropToFloatBuffer(
           image.getImage(), rotationDegrees,
           INPUT_TENSOR_WIDTH, INPUT_TENSOR_HEIGHT,
           TensorImageUtils.TORCHVISION_NORM_MEAN_RGB,
           TensorImageUtils.TORCHVISION_NORM_STD_RGB,
           mInputTensorBuffer, 0);
+      time = mMetrics.record(AnalysisMetrics.Stage.TENSOR_FILL, time);
 
       final long moduleForwardStartTime = SystemClock.elapsedRealtime();
       final Tensor outputTensor = mModule.forward(IValue.from(mInputTensor)).toTensor();
       final long moduleForwardDuration = SystemClock.elapsedRealtime() - moduleForwardStartTime;
+      time = mMetrics.record(AnalysisMetrics.Stage.FORWARD, time);
 
       final float[] scores = outputTensor.getDataAsFloatArray();
-      final int[] ixs = Utils.topK(scores, TOP_K);
+      final int[] ixs = TopK.topK(scores, TOP_K);
 
       final String[] topKClassNames = new String[TOP_K];
       final float[] topKScores = new float[TOP_K];
@@ -192,6 +199,7 @@ public class ImageClassificationActivity extends AbstractCameraXActivity<ImageCl
         topKClassNames[i] = Constants.IMAGENET_CLASSES[ix];
         topKScores[i] = scores[ix];
       }
+      mMetrics.record(AnalysisMetrics.Stage.DECODE, time);
       final long analysisDuration = SystemClock.elapsedRealtime() - startTime;
       return new AnalysisResult(topKClassNames, topKScores, moduleForwardDuration, analysisDuration);
     } catch (Exception e) {
@@ -215,7 +223,8 @@ public class ImageClassificationActivity extends AbstractCameraXActivity<ImageCl
   protected void onDestroy() {
     super.onDestroy();
     if (mModule != null) {
-      mModule.destroy();
+      ModuleRegistry.getInstance(this).release(getModuleAssetName());
+      mModule = null;
     }
   }
 }
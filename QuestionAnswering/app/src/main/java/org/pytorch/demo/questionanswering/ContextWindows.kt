@@ -0,0 +1,44 @@
+// Copyright (c) 2020 Facebook, Inc. and its affiliates.
+// All rights reserved.
+//
+// This source code is licensed under the BSD-style license found in the
+// LICENSE file in the root directory of this source tree.
+
+
+package org.pytorch.demo.questionanswering
+
+/**
+ * Overlapping windows over the tokens of a context too long for one model input, the way BERT
+ * splits documents with a doc stride.
+ *
+ * Windows hold up to maxLength tokens and start stride tokens apart, so consecutive windows share
+ * maxLength - stride tokens and an answer cut by the end of one window is whole in the next. A
+ * stride above maxLength is taken as maxLength. The last window ends at the last token; a
+ * context of at most maxLength tokens is a single window.
+ */
+internal class ContextWindows(contextLength: Int, maxLength: Int, stride: Int) {
+    private val mStarts: IntArray
+    private val mLengths: IntArray
+
+    init {
+        if (maxLength <= 0 || stride <= 0) {
+            throw IllegalArgumentException("Invalid window length $maxLength or stride $stride")
+        }
+        val step = Math.min(stride, maxLength)
+        val count = if (contextLength <= maxLength) 1 else 1 + (contextLength - maxLength + step - 1) / step
+        mStarts = IntArray(count)
+        mLengths = IntArray(count)
+        for (i in 0 until count) {
+            mStarts[i] = Math.min(i * step, Math.max(0, contextLength - maxLength))
+            mLengths[i] = Math.min(maxLength, contextLength - mStarts[i])
+        }
+    }
+
+    val count: Int
+        get() = mStarts.size
+
+    /** Index of the first context token of window i. */
+    fun start(i: Int) = mStarts[i]
+
+    fun length(i: Int) = mLengths[i]
+}
@@ -22,12 +22,9 @@ import org.pytorch.IValue
 import org.pytorch.Module
 import org.pytorch.PyTorchAndroid
 import org.pytorch.Tensor
-import java.io.BufferedReader
+import java.io.File
 import java.io.IOException
-import java.io.InputStreamReader
-import java.lang.Double.MAX_VALUE
 import java.util.*
-import java.util.regex.Pattern
 
 
 internal class QAException(override var message: String) : Exception()
@@ -40,17 +37,41 @@ class MainActivity : AppCompatActivity(), Runnable {
     private var mTextViewAnswer: TextView? = null
     private var mButton: Button? = null
 
-    private var mTokenIdMap: HashMap<String, Long?>? = null
-    private var mIdTokenMap: HashMap<Long, String>? = null
+    private var mVocabulary: WordPieceVocabulary? = null
+    private var mTokenizer: WordPieceTokenizer? = null
+    private val mQuestionTokens = TokenBuffer()
+    private val mTextTokens = TokenBuffer()
+    // the context mTextTokens were cut from, so asking about the same text again skips tokenizing it
+    private var mTextTokensText: String? = null
+    private var mTextTokensHash = 0L
+    // answers by question and context hash, least recently used first
+    private val mAnswerCache = object : LinkedHashMap<AnswerKey, IntRange>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<AnswerKey, IntRange>?) = size > ANSWER_CACHE_SIZE
+    }
+
+    private data class AnswerKey(val question: String, val contextHash: Long)
 
     private val MODEL_INPUT_LENGTH = 360
     private val EXTRA_ID_NUM = 3
+    // contexts longer than a model input are read in windows that start this many tokens apart
+    private val DOC_STRIDE = 128
+    // answer spans are picked from pairs of the N_BEST highest start and end logits, and are at
+    // most MAX_ANSWER_LENGTH tokens long
+    private val N_BEST = 20
+    private val MAX_ANSWER_LENGTH = 30
+    private val ANSWER_CACHE_SIZE = 32
     private val CLS = "[CLS]"
     private val SEP = "[SEP]"
     private val PAD = "[PAD]"
     private val START_LOGITS = "start_logits"
     private val END_LOGITS = "end_logits"
 
+    // model input, reused for every window
+    private val mInputIds = LongArray(MODEL_INPUT_LENGTH)
+    private val mInputBuffer = Tensor.allocateLongBuffer(MODEL_INPUT_LENGTH)
+    private val mInputTensor = Tensor.fromBlob(mInputBuffer, longArrayOf(1, MODEL_INPUT_LENGTH.toLong()))
+    private val mSpanDecoder = SpanDecoder(N_BEST, MAX_ANSWER_LENGTH)
+
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
 
@@ -68,85 +89,60 @@ class MainActivity : AppCompatActivity(), Runnable {
             thread.start()
         })
         try {
-            val br = BufferedReader(InputStreamReader(assets.open("vocab.txt")))
-            var line: String
-            mTokenIdMap = HashMap()
-            mIdTokenMap = HashMap()
-            var count = 0L
-            while (true) {
-                val line = br.readLine()
-                if (line != null) {
-                    mTokenIdMap!![line] = count
-                    mIdTokenMap!![count] = line
-                    count++
-                }
-                else break
-            }
+            // vocab.txt is compiled on first run, and after every app update in case it changed
+            val stamp = packageManager.getPackageInfo(packageName, 0).lastUpdateTime
+            mVocabulary = WordPieceVocabulary.open(assets, "vocab.txt", File(noBackupFilesDir, "vocab.bin"), stamp)
+            mTokenizer = WordPieceTokenizer(mVocabulary!!)
         } catch (e: IOException) {
             e.printStackTrace()
         }
     }
 
     @Throws(QAException::class)
-    private fun tokenizer(question: String, text: String): LongArray {
-        val tokenIdsQuestion = wordPieceTokenizer(question)
-        if (tokenIdsQuestion.size >= MODEL_INPUT_LENGTH) throw QAException("Question too long")
-        val tokenIdsText = wordPieceTokenizer(text)
-        val inputLength = tokenIdsQuestion.size + tokenIdsText.size + EXTRA_ID_NUM
-        val ids = LongArray(Math.min(MODEL_INPUT_LENGTH, inputLength))
-        ids[0] = mTokenIdMap!![CLS]!!
-
-        for (i in tokenIdsQuestion.indices) ids[i + 1] = tokenIdsQuestion[i]!!.toLong()
-        ids[tokenIdsQuestion.size + 1] = mTokenIdMap!![SEP]!!
-        val maxTextLength = Math.min(tokenIdsText.size, MODEL_INPUT_LENGTH - tokenIdsQuestion.size - EXTRA_ID_NUM)
-
-        for (i in 0 until maxTextLength) {
-            ids[tokenIdsQuestion.size + i + 2] = tokenIdsText[i]!!.toLong()
+    private fun tokenize(question: String, text: String, textHash: Long) {
+        mQuestionTokens.clear()
+        mTokenizer!!.tokenize(question, mQuestionTokens)
+        if (mQuestionTokens.size > MODEL_INPUT_LENGTH - EXTRA_ID_NUM - 1) throw QAException("Question too long")
+        if (textHash != mTextTokensHash || text != mTextTokensText) {
+            mTextTokens.clear()
+            mTokenizer!!.tokenize(text, mTextTokens)
+            mTextTokensText = text
+            mTextTokensHash = textHash
         }
-
-        ids[tokenIdsQuestion.size + maxTextLength + 2] = mTokenIdMap!![SEP]!!
-        return ids
+        if (mTextTokens.size == 0) throw QAException("Text is empty")
     }
 
-    private fun wordPieceTokenizer(questionOrText: String): List<Long?> {
-        // for each token, if it's in the vocab.txt (a key in mTokenIdMap), return its Id
-        // else do: a. find the largest sub-token (at least the first letter) that exists in vocab;
-        // b. add "##" to the rest (even if the rest is a valid token) and get the largest sub-token "##..." that exists in vocab;
-        // and c. repeat b.
-        val tokenIds: MutableList<Long?> = ArrayList()
-        val p = Pattern.compile("\\w+|\\S")
-        val m = p.matcher(questionOrText)
-        while (m.find()) {
-            val token = m.group().toLowerCase()
-            if (mTokenIdMap!!.containsKey(token)) tokenIds.add(mTokenIdMap!![token]) else {
-                for (i in 0 until token.length) {
-                    if (mTokenIdMap!!.containsKey(token.substring(0, token.length - i - 1))) {
-                        tokenIds.add(mTokenIdMap!![token.substring(0, token.length - i - 1)])
-                        var subToken = token.substring(token.length - i - 1)
-                        var j = 0
-
-                        while (j < subToken.length) {
-                            if (mTokenIdMap!!.containsKey("##" + subToken.substring(0, subToken.length - j))) {
-                                tokenIds.add(mTokenIdMap!!["##" + subToken.substring(0, subToken.length - j)])
-                                subToken = subToken.substring(subToken.length - j)
-                                j = subToken.length - j
-                            } else if (j == subToken.length - 1) {
-                                tokenIds.add(mTokenIdMap!!["##$subToken"])
-                                break
-                            } else j++
-                        }
-                        break
-                    }
-                }
-            }
+    // 64-bit FNV-1a, so different contexts practically never share answers in the cache
+    private fun hash(text: String): Long {
+        var hash = -0x340d631b7bdddcdbL
+        for (c in text) {
+            hash = (hash xor c.toLong()) * 0x100000001b3L
         }
-        return tokenIds
+        return hash
+    }
+
+    // writes [CLS] question [SEP] the window of the text [SEP] and padding to the model input
+    private fun fillInput(windowStart: Int, windowLength: Int) {
+        val vocab = mVocabulary!!
+        val ids = mInputIds
+        val questionLength = mQuestionTokens.size
+        ids[0] = vocab.idOf(CLS).toLong()
+        System.arraycopy(mQuestionTokens.ids, 0, ids, 1, questionLength)
+        ids[questionLength + 1] = vocab.idOf(SEP).toLong()
+        System.arraycopy(mTextTokens.ids, windowStart, ids, questionLength + 2, windowLength)
+        val inputLength = questionLength + windowLength + EXTRA_ID_NUM
+        ids[inputLength - 1] = vocab.idOf(SEP).toLong()
+        Arrays.fill(ids, inputLength, MODEL_INPUT_LENGTH, vocab.idOf(PAD).toLong())
+
+        mInputBuffer.rewind()
+        mInputBuffer.put(ids)
     }
 
     override fun run() {
-        val result = answer(mEditTextQuestion!!.text.toString(), mEditTextText!!.text.toString())
+        val text = mEditTextText!!.text.toString()
+        val span = answer(mEditTextQuestion!!.text.toString(), text)
         runOnUiThread { mButton!!.isEnabled = true }
-        if (result == null) return
+        if (span == null) return
 
         runOnUiThread {
             val imm = this.getSystemService(Activity.INPUT_METHOD_SERVICE) as InputMethodManager
@@ -154,15 +150,12 @@ class MainActivity : AppCompatActivity(), Runnable {
             if (view == null) view = View(this)
             imm.hideSoftInputFromWindow(view.windowToken, 0)
 
-            val startIdx = mEditTextText!!.text.toString().toLowerCase().indexOf(result)
-            if (startIdx == -1) {
-                mTextViewAnswer!!.text = "Beat me!"
-                return@runOnUiThread
-            }
+            mTextViewAnswer!!.text = text.substring(span.first, span.last + 1)
+            // the offsets are only valid for the text the answer was found in
+            if (mEditTextText!!.text.toString() != text) return@runOnUiThread
 
-            mTextViewAnswer!!.text = result
-            mEditTextText!!.setText(mEditTextText!!.text.toString()) // remove previous answer in bold
-            mEditTextText!!.setSelection(startIdx, startIdx + result.length)
+            mEditTextText!!.setText(text) // remove previous answer in bold
+            mEditTextText!!.setSelection(span.first, span.last + 1)
             val boldSpan = StyleSpan(Typeface.BOLD)
             val startSel = mEditTextText!!.selectionStart
             val endSel = mEditTextText!!.selectionEnd
@@ -171,45 +164,54 @@ class MainActivity : AppCompatActivity(), Runnable {
         }
     }
 
-    private fun answer(question: String, text: String): String? {
+    /**
+     * Returns the character range of the answer in text, or null if there is none.
+     */
+    private fun answer(question: String, text: String): IntRange? {
+        val textHash = hash(text)
+        val key = AnswerKey(question, textHash)
+        val cached = mAnswerCache[key]
+        if (cached != null) return cached
+
         if (mModule == null) {
             mModule = PyTorchAndroid.loadModuleFromAsset(assets, "qa360_quantized.pt")
         }
 
         try {
-            val tokenIds = tokenizer(question, text)
-            val inTensorBuffer = Tensor.allocateLongBuffer(MODEL_INPUT_LENGTH)
-            for (n in tokenIds) inTensorBuffer.put(n.toLong())
-            for (i in 0 until MODEL_INPUT_LENGTH - tokenIds.size) mTokenIdMap!![PAD]?.let { inTensorBuffer.put(it) }
-
-            val inTensor = Tensor.fromBlob(inTensorBuffer, longArrayOf(1, MODEL_INPUT_LENGTH.toLong()))
-            val outTensors = mModule!!.forward(IValue.from(inTensor)).toDictStringKey()
-            val startTensor = outTensors[START_LOGITS]!!.toTensor()
-            val endTensor = outTensors[END_LOGITS]!!.toTensor()
-
-            val starts = startTensor.dataAsFloatArray
-            val ends = endTensor.dataAsFloatArray
-            val answerTokens: MutableList<String?> = ArrayList()
-            val start = argmax(starts)
-            val end = argmax(ends)
-            for (i in start until end + 1) answerTokens.add(mIdTokenMap!![tokenIds[i]])
-
-            return java.lang.String.join(" ", answerTokens).replace(" ##".toRegex(), "").replace("\\s+(?=\\p{Punct})".toRegex(), "")
+            tokenize(question, text, textHash)
+            val questionLength = mQuestionTokens.size
+            val contextOffset = questionLength + 2
+            val windows = ContextWindows(mTextTokens.size, MODEL_INPUT_LENGTH - questionLength - EXTRA_ID_NUM, DOC_STRIDE)
+
+            // the model runs on one window at a time, each written to the same input buffer, and
+            // the span with the highest start plus end logit over all windows is the answer
+            var bestScore = Float.NEGATIVE_INFINITY
+            var bestStart = -1
+            var bestEnd = -1
+            for (w in 0 until windows.count) {
+                fillInput(windows.start(w), windows.length(w))
+                val outTensors = mModule!!.forward(IValue.from(mInputTensor)).toDictStringKey()
+                val starts = outTensors[START_LOGITS]!!.toTensor().dataAsFloatArray
+                val ends = outTensors[END_LOGITS]!!.toTensor().dataAsFloatArray
+
+                // only context tokens can be part of the answer
+                mSpanDecoder.decode(starts, ends, contextOffset, contextOffset + windows.length(w))
+                if (mSpanDecoder.score > bestScore) {
+                    bestScore = mSpanDecoder.score
+                    bestStart = windows.start(w) + mSpanDecoder.start - contextOffset
+                    bestEnd = windows.start(w) + mSpanDecoder.end - contextOffset
+                }
+            }
+            // no span scored above -infinity, e.g. because the logits are NaN
+            if (bestStart < 0) throw QAException("No answer found")
+
+            // the tokens know where in the text they were cut from
+            val span = mTextTokens.starts[bestStart] until mTextTokens.ends[bestEnd]
+            mAnswerCache[key] = span
+            return span
         } catch (e: QAException) {
             runOnUiThread { mTextViewAnswer!!.text = e.message }
         }
         return null
     }
-
-    private fun argmax(array: FloatArray): Int {
-        var maxIdx = 0
-        var maxVal: Double = -MAX_VALUE
-        for (j in array.indices) {
-            if (array[j] > maxVal) {
-                maxVal = array[j].toDouble()
-                maxIdx = j
-            }
-        }
-        return maxIdx
-    }
 }
\ No newline at end of file
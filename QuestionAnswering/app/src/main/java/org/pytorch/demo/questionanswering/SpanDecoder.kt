@@ -0,0 +1,75 @@
+// Copyright (c) 2020 Facebook, Inc. and its affiliates.
+// All rights reserved.
+//
+// This source code is licensed under the BSD-style license found in the
+// LICENSE file in the root directory of this source tree.
+
+
+package org.pytorch.demo.questionanswering
+
+/**
+ * Picks the answer span from the start and end logits of a question answering model.
+ *
+ * Only the nBest highest start and the nBest highest end positions are paired, in O(nBest²), and
+ * a pair is a valid span if it does not end before it starts and is at most maxAnswerLength
+ * tokens long. The valid span with the highest start plus end logit wins, the first one in rank
+ * order on ties, so the result is deterministic. If no pair of the nBest positions is valid, the
+ * best end within maxAnswerLength of the best start is taken. Not thread safe.
+ */
+internal class SpanDecoder(private val nBest: Int, private val maxAnswerLength: Int) {
+    private var mStarts = FloatArray(0)
+    private var mEnds = FloatArray(0)
+    private var mStartOrder = IntArray(0)
+    private var mEndOrder = IntArray(0)
+
+    // the span found by the last decode(), as indices into the logits
+    var start = -1
+        private set
+    var end = -1
+        private set
+    var score = Float.NEGATIVE_INFINITY
+        private set
+
+    /**
+     * Finds the best span within [from, to) of the logits, which must not be empty.
+     */
+    fun decode(starts: FloatArray, ends: FloatArray, from: Int, to: Int) {
+        val count = to - from
+        if (count <= 0) throw IllegalArgumentException("Empty range [$from, $to)")
+        if (mStarts.size < count) {
+            mStarts = FloatArray(count)
+            mEnds = FloatArray(count)
+            mStartOrder = IntArray(count)
+            mEndOrder = IntArray(count)
+        }
+        System.arraycopy(starts, from, mStarts, 0, count)
+        System.arraycopy(ends, from, mEnds, 0, count)
+        val startCount = TopK.topK(mStarts, count, nBest, mStartOrder)
+        val endCount = TopK.topK(mEnds, count, nBest, mEndOrder)
+
+        var bestStart = -1
+        var bestEnd = -1
+        var bestScore = Float.NEGATIVE_INFINITY
+        for (i in 0 until startCount) {
+            val s = mStartOrder[i]
+            for (j in 0 until endCount) {
+                val e = mEndOrder[j]
+                if (e < s || e - s >= maxAnswerLength) continue
+                val score = mStarts[s] + mEnds[e]
+                if (score > bestScore) {
+                    bestScore = score
+                    bestStart = s
+                    bestEnd = e
+                }
+            }
+        }
+        if (bestStart < 0) {
+            bestStart = mStartOrder[0]
+            bestEnd = TopK.argmax(mEnds, bestStart, Math.min(count, bestStart + maxAnswerLength))
+            bestScore = mStarts[bestStart] + mEnds[bestEnd]
+        }
+        start = from + bestStart
+        end = from + bestEnd
+        score = bestScore
+    }
+}
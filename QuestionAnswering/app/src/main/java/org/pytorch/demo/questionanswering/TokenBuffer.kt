@@ -0,0 +1,47 @@
+// Copyright (c) 2020 Facebook, Inc. and its affiliates.
+// All rights reserved.
+//
+// This source code is licensed under the BSD-style license found in the
+// LICENSE file in the root directory of this source tree.
+
+
+package org.pytorch.demo.questionanswering
+
+/**
+ * Growable primitive arrays of token ids and the character range [start, end) of the text that
+ * each token was cut from, so tokens can be mapped back to the text without boxing.
+ */
+internal class TokenBuffer(capacity: Int = 256) {
+    var ids = LongArray(capacity)
+        private set
+    var starts = IntArray(capacity)
+        private set
+    var ends = IntArray(capacity)
+        private set
+    var size = 0
+        private set
+
+    fun add(id: Long, start: Int, end: Int) {
+        if (size == ids.size) {
+            val capacity = Math.max(16, 2 * size)
+            ids = ids.copyOf(capacity)
+            starts = starts.copyOf(capacity)
+            ends = ends.copyOf(capacity)
+        }
+        ids[size] = id
+        starts[size] = start
+        ends[size] = end
+        size++
+    }
+
+    /**
+     * Drops the tokens from index size on.
+     */
+    fun truncate(size: Int) {
+        if (size < this.size) this.size = size
+    }
+
+    fun clear() {
+        size = 0
+    }
+}
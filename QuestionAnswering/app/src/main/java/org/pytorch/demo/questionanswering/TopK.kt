@@ -0,0 +1,178 @@
+// Copyright (c) 2020 Facebook, Inc. and its affiliates.
+// All rights reserved.
+//
+// This source code is licensed under the BSD-style license found in the
+// LICENSE file in the root directory of this source tree.
+
+
+package org.pytorch.demo.questionanswering
+
+/**
+ * Argmax and top-K selection over primitive float scores, without boxing or sorting the whole array.
+ *
+ * Scores are ranked from high to low, and equal scores keep the lower index first, so results
+ * are the same as a stable descending sort. Small k uses a bounded min-heap (O(n log k)), large
+ * k partitions the indices around a median-of-three pivot (O(n) on average) and only sorts the
+ * selected ones.
+ */
+internal object TopK {
+    // below this k, or below count / PARTITION_RATIO, the bounded heap does less work than partitioning
+    private const val HEAP_MAX_K = 16
+    private const val PARTITION_RATIO = 8
+
+    /**
+     * Index of the first maximum in scores[from, to), or -1 if the range is empty.
+     */
+    fun argmax(scores: FloatArray, from: Int = 0, to: Int = scores.size): Int {
+        if (from >= to) return -1
+        var i = from + 1
+        var best = from
+        if (to - i >= 8) {
+            // four independent running maxima, so consecutive compares do not depend on each other
+            var m0 = scores[from]
+            var m1 = m0
+            var m2 = m0
+            var m3 = m0
+            var i0 = from
+            var i1 = from
+            var i2 = from
+            var i3 = from
+            val end = to - 3
+            while (i < end) {
+                if (scores[i] > m0) { m0 = scores[i]; i0 = i }
+                if (scores[i + 1] > m1) { m1 = scores[i + 1]; i1 = i + 1 }
+                if (scores[i + 2] > m2) { m2 = scores[i + 2]; i2 = i + 2 }
+                if (scores[i + 3] > m3) { m3 = scores[i + 3]; i3 = i + 3 }
+                i += 4
+            }
+            best = pick(m0, i0, m1, i1)
+            best = pick(scores[best], best, m2, i2)
+            best = pick(scores[best], best, m3, i3)
+        }
+        var max = scores[best]
+        while (i < to) {
+            if (scores[i] > max) {
+                max = scores[i]
+                best = i
+            }
+            i++
+        }
+        return best
+    }
+
+    private fun pick(a: Float, ia: Int, b: Float, ib: Int): Int {
+        return if (b > a || (b == a && ib < ia)) ib else ia
+    }
+
+    /**
+     * Indices of the min(k, scores.size) highest scores, from high to low.
+     */
+    fun topK(scores: FloatArray, k: Int): IntArray {
+        val order = IntArray(scores.size)
+        val n = topK(scores, scores.size, k, order)
+        return order.copyOf(n)
+    }
+
+    /**
+     * Writes the indices of the min(k, count) highest of scores[0, count) to order, from high to
+     * low, and returns how many were written. order is used as scratch space and must have room
+     * for count indices.
+     */
+    fun topK(scores: FloatArray, count: Int, k: Int, order: IntArray): Int {
+        val n = Math.min(k, count)
+        if (n <= 0) return 0
+        if (n <= HEAP_MAX_K || n <= count / PARTITION_RATIO) {
+            selectByHeap(scores, count, n, order)
+        } else {
+            selectByPartition(scores, count, n, order)
+        }
+        sortDescending(scores, order, n)
+        return n
+    }
+
+    private fun selectByHeap(scores: FloatArray, count: Int, k: Int, heap: IntArray) {
+        var heapSize = 0
+        for (i in 0 until count) {
+            if (heapSize < k) {
+                heap[heapSize] = i
+                siftUp(scores, heap, heapSize++)
+            } else if (ranksAbove(scores, i, heap[0])) {
+                heap[0] = i
+                siftDown(scores, heap, 0, heapSize)
+            }
+        }
+    }
+
+    private fun selectByPartition(scores: FloatArray, count: Int, k: Int, order: IntArray) {
+        for (i in 0 until count) order[i] = i
+        var lo = 0
+        var hi = count - 1
+        while (lo < hi) {
+            val p = partition(scores, order, lo, hi)
+            if (p == k - 1) break
+            if (p < k - 1) lo = p + 1 else hi = p - 1
+        }
+        // the first k entries are the selected ones, in no particular order; make them a min-heap
+        for (pos in k / 2 - 1 downTo 0) siftDown(scores, order, pos, k)
+    }
+
+    // moves the indices ranking above the pivot before it and returns the pivot's position
+    private fun partition(scores: FloatArray, order: IntArray, lo: Int, hi: Int): Int {
+        val mid = (lo + hi) ushr 1
+        if (ranksAbove(scores, order[mid], order[lo])) swap(order, lo, mid)
+        if (ranksAbove(scores, order[hi], order[lo])) swap(order, lo, hi)
+        if (ranksAbove(scores, order[mid], order[hi])) swap(order, mid, hi)
+        val pivot = order[hi]
+        var store = lo
+        for (i in lo until hi) {
+            if (ranksAbove(scores, order[i], pivot)) swap(order, i, store++)
+        }
+        swap(order, store, hi)
+        return store
+    }
+
+    // heap sort of the min-heap in order[0, k): repeatedly move the lowest remaining score to the back
+    private fun sortDescending(scores: FloatArray, order: IntArray, k: Int) {
+        for (end in k - 1 downTo 1) {
+            swap(order, 0, end)
+            siftDown(scores, order, 0, end)
+        }
+    }
+
+    // higher score first, lower index first on ties
+    private fun ranksAbove(scores: FloatArray, a: Int, b: Int): Boolean {
+        return scores[a] > scores[b] || (scores[a] == scores[b] && a < b)
+    }
+
+    private fun siftUp(scores: FloatArray, heap: IntArray, start: Int) {
+        var pos = start
+        val item = heap[pos]
+        while (pos > 0) {
+            val parent = (pos - 1) ushr 1
+            if (!ranksAbove(scores, heap[parent], item)) break
+            heap[pos] = heap[parent]
+            pos = parent
+        }
+        heap[pos] = item
+    }
+
+    private fun siftDown(scores: FloatArray, heap: IntArray, start: Int, size: Int) {
+        var pos = start
+        val item = heap[pos]
+        while (true) {
+            var child = 2 * pos + 1
+            if (child >= size) break
+            if (child + 1 < size && ranksAbove(scores, heap[child], heap[child + 1])) child++
+            if (!ranksAbove(scores, item, heap[child])) break
+            heap[pos] = heap[child]
+            pos = child
+        }
+        heap[pos] = item
+    }
+
+    private fun swap(a: IntArray, i: Int, j: Int) {
+        val tmp = a[i]
+        a[i] = a[j]
+        a[j] = tmp
+    }
+}
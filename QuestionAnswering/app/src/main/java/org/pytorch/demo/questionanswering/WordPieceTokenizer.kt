@@ -0,0 +1,90 @@
+// Copyright (c) 2020 Facebook, Inc. and its affiliates.
+// All rights reserved.
+//
+// This source code is licensed under the BSD-style license found in the
+// LICENSE file in the root directory of this source tree.
+
+
+package org.pytorch.demo.questionanswering
+
+/**
+ * Splits text into WordPiece token ids in one forward scan over its characters.
+ *
+ * Words are runs of ASCII letters, digits and underscores, and every other non-whitespace
+ * character is a word of its own, as with the pattern `\w+|\S`. Each word is lowercased and
+ * cut greedily into the longest vocabulary token at its start followed by the longest "##"
+ * continuation pieces, by walking the vocabulary trie once per piece. A word that cannot be cut
+ * completely, or is longer than MAX_WORD_LENGTH, becomes the unknown token. Not thread safe.
+ */
+internal class WordPieceTokenizer(private val vocab: WordPieceVocabulary) {
+    private val unknownId = vocab.idOf(UNKNOWN).toLong()
+    // the lowercased characters of the current word
+    private val word = CharArray(MAX_WORD_LENGTH)
+
+    /**
+     * Appends the tokens of text to out, with their character ranges in text.
+     */
+    fun tokenize(text: CharSequence, out: TokenBuffer) {
+        val length = text.length
+        var i = 0
+        while (i < length) {
+            val c = text[i]
+            if (isWhitespace(c)) {
+                i++
+                continue
+            }
+            var end = i + 1
+            if (isWordChar(c)) {
+                while (end < length && isWordChar(text[end])) end++
+            }
+            tokenizeWord(text, i, end, out)
+            i = end
+        }
+    }
+
+    private fun tokenizeWord(text: CharSequence, start: Int, end: Int, out: TokenBuffer) {
+        val length = end - start
+        if (length > MAX_WORD_LENGTH) {
+            out.add(unknownId, start, end)
+            return
+        }
+        for (i in 0 until length) word[i] = Character.toLowerCase(text[start + i])
+
+        val mark = out.size
+        var pieceStart = 0
+        while (pieceStart < length) {
+            var node = if (pieceStart == 0) WordPieceVocabulary.ROOT else vocab.continuationRoot
+            var matchEnd = -1
+            var matchId = -1
+            var i = pieceStart
+            while (node >= 0 && i < length) {
+                node = vocab.child(node, word[i++])
+                if (node >= 0 && vocab.valueOf(node) >= 0) {
+                    matchEnd = i
+                    matchId = vocab.valueOf(node)
+                }
+            }
+            if (matchId < 0) {
+                out.truncate(mark)
+                out.add(unknownId, start, end)
+                return
+            }
+            out.add(matchId.toLong(), start + pieceStart, start + matchEnd)
+            pieceStart = matchEnd
+        }
+    }
+
+    companion object {
+        const val UNKNOWN = "[UNK]"
+        // longer words are not split, like BERT's max_input_chars_per_word
+        const val MAX_WORD_LENGTH = 100
+
+        // \s of java.util.regex
+        private fun isWhitespace(c: Char) =
+            c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\u000C' || c == '\r'
+
+        // \w of java.util.regex
+        private fun isWordChar(c: Char) =
+            c in 'a'..'z' || c in 'A'..'Z' || c in '0'..'9' || c == '_'
+    }
+}
@@ -0,0 +1,366 @@
+// Copyright (c) 2020 Facebook, Inc. and its affiliates.
+// All rights reserved.
+//
+// This source code is licensed under the BSD-style license found in the
+// LICENSE file in the root directory of this source tree.
+
+
+package org.pytorch.demo.questionanswering
+
+import android.content.res.AssetManager
+import android.util.Log
+import java.io.BufferedReader
+import java.io.File
+import java.io.IOException
+import java.io.InputStream
+import java.io.InputStreamReader
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.CharBuffer
+import java.nio.IntBuffer
+import java.nio.channels.FileChannel
+import java.util.*
+
+/**
+ * A WordPiece vocabulary held in a double-array trie, so the longest token starting at any
+ * position of a word is found in one forward scan without creating substrings.
+ *
+ * The child of node s for a character with code c is base[s] + c if check[base[s] + c] == s, and
+ * values[s] is the id of the token ending at s, or -1. Characters are mapped to dense codes by
+ * frequency first, which keeps the arrays small. Continuation pieces are stored with their "##"
+ * prefix, so matching a continuation starts from the node reached by "##" instead of a second
+ * trie. The text of token i is tokenChars[tokenOffsets[i], tokenOffsets[i + 1]).
+ *
+ * The tables are buffers so a compiled vocabulary can be used straight from a memory-mapped file:
+ * a fixed header followed by the character codes, base, check, values, token offsets and token
+ * characters, little-endian. open() compiles vocab.txt into that file once and maps it from then
+ * on, so loading costs neither parsing nor heap. Immutable and safe to share between threads.
+ */
+internal class WordPieceVocabulary private constructor(
+    private val charCodes: CharBuffer,
+    private val base: IntBuffer,
+    private val check: IntBuffer,
+    private val values: IntBuffer,
+    private val tokenOffsets: IntBuffer,
+    private val tokenChars: CharBuffer
+) {
+    /** Node that continuation pieces start from, or -1 if the vocabulary has none. */
+    val continuationRoot = walk(ROOT, CONTINUATION_PREFIX)
+
+    val size: Int
+        get() = tokenOffsets.limit() - 1
+
+    fun token(id: Long): String {
+        val start = tokenOffsets[id.toInt()]
+        val end = tokenOffsets[id.toInt() + 1]
+        return String(CharArray(end - start) { tokenChars[start + it] })
+    }
+
+    /**
+     * Id of the token, or -1 if it is not in the vocabulary.
+     */
+    fun idOf(token: String): Int {
+        val node = walk(ROOT, token)
+        return if (node < 0) -1 else values[node]
+    }
+
+    /**
+     * Node reached from node by the character, or -1.
+     */
+    fun child(node: Int, c: Char): Int {
+        val code = charCodes[c.toInt()].toInt()
+        if (code == 0) return -1
+        val t = base[node] + code
+        return if (t < check.limit() && check[t] == node) t else -1
+    }
+
+    /**
+     * Id of the token ending at node, or -1.
+     */
+    fun valueOf(node: Int): Int = values[node]
+
+    private fun walk(from: Int, key: String): Int {
+        var node = from
+        for (c in key) {
+            if (node < 0) break
+            node = child(node, c)
+        }
+        return node
+    }
+
+    /**
+     * Writes the compiled vocabulary to file, tagged with stamp.
+     */
+    @Throws(IOException::class)
+    fun writeTo(file: File, stamp: Long) {
+        val nodeCount = base.limit()
+        val tokenCharCount = tokenChars.limit()
+        val buffer = ByteBuffer.allocate(HEADER_BYTES + 2 * CHAR_CODE_COUNT + 12 * nodeCount
+                + 4 * (size + 1) + 2 * tokenCharCount).order(ByteOrder.LITTLE_ENDIAN)
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(stamp)
+            .putInt(nodeCount).putInt(size).putInt(tokenCharCount).putInt(0)
+        for (i in 0 until CHAR_CODE_COUNT) buffer.putChar(charCodes[i])
+        for (table in arrayOf(base, check, values)) {
+            for (i in 0 until nodeCount) buffer.putInt(table[i])
+        }
+        for (i in 0..size) buffer.putInt(tokenOffsets[i])
+        for (i in 0 until tokenCharCount) buffer.putChar(tokenChars[i])
+        buffer.flip()
+
+        // written aside and renamed, so a reader never maps half a file
+        val temp = File(file.path + ".tmp")
+        RandomAccessFile(temp, "rw").use { raf ->
+            raf.setLength(0)
+            val channel = raf.channel
+            while (buffer.hasRemaining()) channel.write(buffer)
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete()
+            throw IOException("Cannot write $file")
+        }
+    }
+
+    companion object {
+        private const val TAG = "WordPieceVocabulary"
+        const val ROOT = 0
+        const val CONTINUATION_PREFIX = "##"
+
+        private const val MAGIC = 0x57505631
+        private const val VERSION = 1
+        // magic, version, stamp, node count, token count, token char count, padding
+        private const val HEADER_BYTES = 32
+        private const val CHAR_CODE_COUNT = 65536
+
+        /**
+         * Maps the vocabulary compiled to compiled if it was tagged with stamp, or else reads the
+         * text vocabulary from the asset and compiles it to compiled for the next time. Pass a
+         * stamp that changes whenever the asset may have, such as the app's update time.
+         */
+        @Throws(IOException::class)
+        fun open(assets: AssetManager, asset: String, compiled: File, stamp: Long): WordPieceVocabulary {
+            if (compiled.exists()) {
+                try {
+                    val vocab = map(compiled, stamp)
+                    if (vocab != null) return vocab
+                } catch (e: IOException) {
+                    Log.w(TAG, "Error reading $compiled", e)
+                }
+            }
+            val vocab = assets.open(asset).use { load(it) }
+            try {
+                vocab.writeTo(compiled, stamp)
+            } catch (e: IOException) {
+                Log.w(TAG, "Error writing $compiled", e)
+            }
+            return vocab
+        }
+
+        /**
+         * Maps a compiled vocabulary, or returns null if it is not tagged with stamp.
+         */
+        @Throws(IOException::class)
+        fun map(file: File, stamp: Long): WordPieceVocabulary? {
+            RandomAccessFile(file, "r").use { raf ->
+                val size = raf.length()
+                if (size < HEADER_BYTES) return null
+                // the mapping stays valid after the file is closed
+                val map = raf.channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN)
+                if (map.getInt() != MAGIC || map.getInt() != VERSION || map.getLong() != stamp) return null
+                val nodeCount = map.getInt()
+                val tokenCount = map.getInt()
+                val tokenCharCount = map.getInt()
+                if (size != HEADER_BYTES + 2L * CHAR_CODE_COUNT + 12L * nodeCount + 4L * (tokenCount + 1) + 2L * tokenCharCount) {
+                    return null
+                }
+                var offset = HEADER_BYTES
+                val charCodes = section(map, offset, 2 * CHAR_CODE_COUNT).asCharBuffer()
+                offset += 2 * CHAR_CODE_COUNT
+                val base = section(map, offset, 4 * nodeCount).asIntBuffer()
+                offset += 4 * nodeCount
+                val check = section(map, offset, 4 * nodeCount).asIntBuffer()
+                offset += 4 * nodeCount
+                val values = section(map, offset, 4 * nodeCount).asIntBuffer()
+                offset += 4 * nodeCount
+                val tokenOffsets = section(map, offset, 4 * (tokenCount + 1)).asIntBuffer()
+                offset += 4 * (tokenCount + 1)
+                val tokenChars = section(map, offset, 2 * tokenCharCount).asCharBuffer()
+                return WordPieceVocabulary(charCodes, base, check, values, tokenOffsets, tokenChars)
+            }
+        }
+
+        private fun section(map: ByteBuffer, offset: Int, length: Int): ByteBuffer {
+            val view = map.duplicate()
+            view.limit(offset + length)
+            view.position(offset)
+            // slice() does not keep the byte order
+            return view.slice().order(ByteOrder.LITTLE_ENDIAN)
+        }
+
+        /**
+         * Reads one token per line, the id of a token being its line number from 0.
+         */
+        @Throws(IOException::class)
+        fun load(input: InputStream): WordPieceVocabulary {
+            val tokens = ArrayList<String>(32 * 1024)
+            BufferedReader(InputStreamReader(input, Charsets.UTF_8)).use { reader ->
+                while (true) {
+                    val line = reader.readLine() ?: break
+                    tokens.add(line)
+                }
+            }
+            return build(tokens.toTypedArray())
+        }
+
+        fun build(tokens: Array<String>): WordPieceVocabulary {
+            val charCodes = charCodes(tokens)
+            val keys = Array(tokens.size) { id ->
+                val token = tokens[id]
+                CharArray(token.length) { charCodes[token[it].toInt()] }
+            }
+            // sorted by code sequence, so each node's keys are a range and shorter keys come first
+            val order = (0 until tokens.size).sortedWith(Comparator { a, b -> compare(keys[a], keys[b]) })
+            val builder = Builder(keys, order.toIntArray())
+            builder.build()
+
+            val tokenOffsets = IntArray(tokens.size + 1)
+            for (i in tokens.indices) tokenOffsets[i + 1] = tokenOffsets[i] + tokens[i].length
+            val tokenChars = CharArray(tokenOffsets[tokens.size])
+            for (i in tokens.indices) tokens[i].toCharArray(tokenChars, tokenOffsets[i])
+            return WordPieceVocabulary(CharBuffer.wrap(charCodes), IntBuffer.wrap(builder.base.copyOf(builder.size)),
+                IntBuffer.wrap(builder.check.copyOf(builder.size)), IntBuffer.wrap(builder.values.copyOf(builder.size)),
+                IntBuffer.wrap(tokenOffsets), CharBuffer.wrap(tokenChars))
+        }
+
+        // codes from 1 by descending frequency, 0 for characters that are not in any token
+        private fun charCodes(tokens: Array<String>): CharArray {
+            val counts = IntArray(CHAR_CODE_COUNT)
+            for (token in tokens) for (c in token) counts[c.toInt()]++
+            val chars = (0 until counts.size).filter { counts[it] > 0 }.sortedByDescending { counts[it] }
+            val codes = CharArray(CHAR_CODE_COUNT)
+            for (i in chars.indices) codes[chars[i]] = (i + 1).toChar()
+            return codes
+        }
+
+        private fun compare(a: CharArray, b: CharArray): Int {
+            val n = Math.min(a.size, b.size)
+            for (i in 0 until n) {
+                if (a[i] != b[i]) return a[i] - b[i]
+            }
+            return a.size - b.size
+        }
+    }
+
+    private class Builder(private val keys: Array<CharArray>, private val order: IntArray) {
+        var base = IntArray(1024)
+        var check = IntArray(1024).also { Arrays.fill(it, -1) }
+        var values = IntArray(1024).also { Arrays.fill(it, -1) }
+        var size = 1
+        // slots before this are nearly all used, so searching for free ones starts here
+        private var nextCheckPos = 1
+
+        // node, range of order and depth of each node still to be placed
+        private val pending = ArrayDeque<IntArray>()
+        private val childCodes = IntArrayList()
+        private val childStarts = IntArrayList()
+
+        fun build() {
+            check[ROOT] = ROOT
+            pending.add(intArrayOf(ROOT, 0, order.size, 0))
+            while (pending.isNotEmpty()) {
+                val (node, from, to, depth) = pending.poll()
+                place(node, from, to, depth)
+            }
+        }
+
+        private fun place(node: Int, from: Int, to: Int, depth: Int) {
+            var start = from
+            // the sort is stable, so a duplicate token keeps its last id like a map filled line by line
+            while (start < to && keys[order[start]].size == depth) {
+                values[node] = order[start]
+                start++
+            }
+            if (start == to) return
+
+            childCodes.clear()
+            childStarts.clear()
+            for (i in start until to) {
+                val code = keys[order[i]][depth].toInt()
+                if (childCodes.size == 0 || childCodes.last() != code) {
+                    childCodes.add(code)
+                    childStarts.add(i)
+                }
+            }
+            childStarts.add(to)
+
+            val b = findBase()
+            base[node] = b
+            for (i in 0 until childCodes.size) {
+                check[b + childCodes[i]] = node
+            }
+            for (i in 0 until childCodes.size) {
+                pending.add(intArrayOf(b + childCodes[i], childStarts[i], childStarts[i + 1], depth + 1))
+            }
+        }
+
+        // the lowest base at which every child lands on a free slot
+        private fun findBase(): Int {
+            val first = childCodes[0]
+            val last = childCodes.last()
+            var pos = Math.max(nextCheckPos, first + 1)
+            var used = 0
+            while (true) {
+                ensureCapacity(pos - first + last + 1)
+                if (check[pos] >= 0) {
+                    used++
+                    pos++
+                    continue
+                }
+                val b = pos - first
+                var free = true
+                for (i in 1 until childCodes.size) {
+                    if (check[b + childCodes[i]] >= 0) {
+                        free = false
+                        break
+                    }
+                }
+                if (free) {
+                    if (used > 0 && used.toFloat() / (pos - nextCheckPos + 1) >= 0.95f) nextCheckPos = pos
+                    size = Math.max(size, b + last + 1)
+                    return b
+                }
+                pos++
+            }
+        }
+
+        private fun ensureCapacity(capacity: Int) {
+            if (capacity <= check.size) return
+            val newSize = Math.max(capacity, check.size * 2)
+            val oldSize = check.size
+            base = base.copyOf(newSize)
+            check = check.copyOf(newSize)
+            values = values.copyOf(newSize)
+            Arrays.fill(check, oldSize, newSize, -1)
+            Arrays.fill(values, oldSize, newSize, -1)
+        }
+    }
+
+    private class IntArrayList {
+        private var items = IntArray(64)
+        var size = 0
+            private set
+
+        operator fun get(i: Int) = items[i]
+
+        fun last() = items[size - 1]
+
+        fun add(item: Int) {
+            if (size == items.size) items = items.copyOf(2 * size)
+            items[size++] = item
+        }
+
+        fun clear() {
+            size = 0
+        }
+    }
+}
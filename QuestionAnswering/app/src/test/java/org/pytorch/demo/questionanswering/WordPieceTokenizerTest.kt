@@ -0,0 +1,90 @@
+// Copyright (c) 2020 Facebook, Inc. and its affiliates.
+// All rights reserved.
+//
+// This source code is licensed under the BSD-style license found in the
+// LICENSE file in the root directory of this source tree.
+
+
+package org.pytorch.demo.questionanswering
+
+import org.junit.Assert.assertEquals
+import org.junit.BeforeClass
+import org.junit.Test
+import java.io.File
+import java.io.FileInputStream
+
+/**
+ * Checks WordPieceTokenizer on the bundled BERT uncased vocab.txt against the splits of BERT's
+ * greedy longest-match WordPiece, with the character range of each piece.
+ */
+class WordPieceTokenizerTest {
+
+    @Test
+    fun splitsIntoLongestPieces() {
+        assertTokens("unaffable", "una 0 3", "##ffa 3 6", "##ble 6 9")
+        assertTokens("tokenization", "token 0 5", "##ization 5 12")
+        assertTokens("XNNPACK kernels", "x 0 1", "##nn 1 3", "##pack 3 7", "kernel 8 14", "##s 14 15")
+    }
+
+    @Test
+    fun lowercasesAndKeepsOffsetsInOriginalText() {
+        assertTokens("  PyTorch\tMobile", "p 2 3", "##yt 3 5", "##or 5 7", "##ch 7 9", "mobile 10 16")
+    }
+
+    @Test
+    fun splitsPunctuationIntoSingleCharacters() {
+        assertTokens("8-bit, i.e., quantization!",
+            "8 0 1", "- 1 2", "bit 2 5", ", 5 6", "i 7 8", ". 8 9", "e 9 10", ". 10 11", ", 11 12",
+            "quan 13 17", "##ti 17 19", "##zation 19 25", "! 25 26")
+        assertTokens("Mobile's", "mobile 0 6", "' 6 7", "s 7 8")
+    }
+
+    @Test
+    fun unknownCharactersAndLongWordsBecomeUnknown() {
+        assertTokens("snow☃man", "snow 0 4", "[UNK] 4 5", "man 5 8")
+        assertTokens("café", "caf 0 3", "[UNK] 3 4")
+
+        val long = "a".repeat(WordPieceTokenizer.MAX_WORD_LENGTH + 1)
+        assertTokens("x $long y", "x 0 1", "[UNK] 2 ${long.length + 2}", "y ${long.length + 3} ${long.length + 4}")
+    }
+
+    @Test
+    fun unsplittableWordBecomesOneUnknown() {
+        // "b" has no continuation piece, so "ab" cannot be cut completely
+        val vocab = WordPieceVocabulary.build(arrayOf("[UNK]", "a", "b", "##a", "c"))
+        val tokens = TokenBuffer()
+        WordPieceTokenizer(vocab).tokenize("aa ab c", tokens)
+        assertEquals(listOf("a 0 1", "##a 1 2", "[UNK] 3 5", "c 6 7"), describe(vocab, tokens))
+    }
+
+    @Test
+    fun appendsToBuffer() {
+        val tokens = TokenBuffer(1)
+        tokenizer.tokenize("hello", tokens)
+        tokenizer.tokenize("world", tokens)
+        assertEquals(listOf("hello 0 5", "world 0 5"), describe(vocabulary, tokens))
+    }
+
+    private fun assertTokens(text: String, vararg expected: String) {
+        val tokens = TokenBuffer()
+        tokenizer.tokenize(text, tokens)
+        assertEquals(text, expected.toList(), describe(vocabulary, tokens))
+    }
+
+    // each token as "<token> <start> <end>"
+    private fun describe(vocab: WordPieceVocabulary, tokens: TokenBuffer) =
+        (0 until tokens.size).map { "${vocab.token(tokens.ids[it])} ${tokens.starts[it]} ${tokens.ends[it]}" }
+
+    companion object {
+        private lateinit var vocabulary: WordPieceVocabulary
+        private lateinit var tokenizer: WordPieceTokenizer
+
+        @BeforeClass
+        @JvmStatic
+        fun loadVocabulary() {
+            // unit tests run from the module directory
+            vocabulary = FileInputStream(File("src/main/assets/vocab.txt")).use { WordPieceVocabulary.load(it) }
+            tokenizer = WordPieceTokenizer(vocabulary)
+        }
+    }
+}
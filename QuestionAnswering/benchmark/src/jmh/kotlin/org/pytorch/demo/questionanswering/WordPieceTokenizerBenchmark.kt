@@ -0,0 +1,99 @@
+// Copyright (c) 2020 Facebook, Inc. and its affiliates.
+// All rights reserved.
+//
+// This source code is licensed under the BSD-style license found in the
+// LICENSE file in the root directory of this source tree.
+
+
+package org.pytorch.demo.questionanswering
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import java.util.*
+import java.util.concurrent.TimeUnit
+import java.util.regex.Pattern
+
+/**
+ * WordPieceTokenizer on the bundled vocab.txt against the substring and HashMap tokenizer it
+ * replaced, on the app's default context and on the same text with every word repeated into a
+ * long one, where the old tokenizer's probing is quadratic in the word length.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class WordPieceTokenizerBenchmark {
+    @Param("context", "longWords")
+    lateinit var text: String
+
+    private lateinit var mText: String
+    private lateinit var mTokenizer: WordPieceTokenizer
+    private val mTokens = TokenBuffer()
+    private val mTokenIdMap = HashMap<String, Long?>()
+
+    @Setup
+    fun setup() {
+        val lines = javaClass.getResourceAsStream("/vocab.txt")!!.bufferedReader().readLines()
+        mTokenizer = WordPieceTokenizer(WordPieceVocabulary.build(lines.toTypedArray()))
+        lines.forEachIndexed { id, token -> mTokenIdMap[token] = id.toLong() }
+        // each word four times over, still below WordPieceTokenizer.MAX_WORD_LENGTH
+        mText = if (text == "longWords") CONTEXT.split(' ').joinToString(" ") { it.repeat(4) } else CONTEXT
+    }
+
+    @Benchmark
+    fun trie(): Int {
+        mTokens.clear()
+        mTokenizer.tokenize(mText, mTokens)
+        return mTokens.size
+    }
+
+    @Benchmark
+    fun hashMap(): List<Long?> = wordPieceTokenizer(mText)
+
+    // the tokenizer MainActivity used before WordPieceTokenizer
+    private fun wordPieceTokenizer(questionOrText: String): List<Long?> {
+        val tokenIds: MutableList<Long?> = ArrayList()
+        val p = Pattern.compile("\\w+|\\S")
+        val m = p.matcher(questionOrText)
+        while (m.find()) {
+            val token = m.group().toLowerCase()
+            if (mTokenIdMap.containsKey(token)) tokenIds.add(mTokenIdMap[token]) else {
+                for (i in 0 until token.length) {
+                    if (mTokenIdMap.containsKey(token.substring(0, token.length - i - 1))) {
+                        tokenIds.add(mTokenIdMap[token.substring(0, token.length - i - 1)])
+                        var subToken = token.substring(token.length - i - 1)
+                        var j = 0
+
+                        while (j < subToken.length) {
+                            if (mTokenIdMap.containsKey("##" + subToken.substring(0, subToken.length - j))) {
+                                tokenIds.add(mTokenIdMap["##" + subToken.substring(0, subToken.length - j)])
+                                subToken = subToken.substring(subToken.length - j)
+                                j = subToken.length - j
+                            } else if (j == subToken.length - 1) {
+                                tokenIds.add(mTokenIdMap["##$subToken"])
+                                break
+                            } else j++
+                        }
+                        break
+                    }
+                }
+            }
+        }
+        return tokenIds
+    }
+
+    companion object {
+        private const val CONTEXT = "There is a growing need to execute ML models on edge devices to reduce latency, preserve privacy and enable new interactive use cases. In the past, engineers used to train models separately. They would then go through a multi-step, error prone and often complex process to transform the models for execution on a mobile device. The mobile runtime was often significantly different from the operations available during training leading to inconsistent developer and eventually user experience. PyTorch Mobile removes these friction surfaces by allowing a seamless process to go from training to deployment by staying entirely within the PyTorch ecosystem. It provides an end-to-end workflow that simplifies the research to production environment for mobile devices. In addition, it paves the way for privacy-preserving features via Federated Learning techniques. PyTorch Mobile is in beta stage right now and in wide scale production use. It will soon be available as a stable release once the APIs are locked down. Key features of PyTorch Mobile: Available for iOS, Android and Linux; Provides APIs that cover common preprocessing and integration tasks needed for incorporating ML in mobile applications; Support for tracing and scripting via TorchScript IR; Support for XNNPACK floating point kernel libraries for Arm CPUs; Integration of QNNPACK for 8-bit quantized kernels. Includes support for per-channel quantization, dynamic quantization and more; Build level optimization and selective compilation depending on the operators needed for user applications, i.e., the final binary size of the app is determined by the actual operators the app needs; Support for hardware backends like GPU, DSP, NPU will be available soon."
+    }
+}
@@ -14,18 +14,16 @@ import android.widget.TextView;
 
 import androidx.appcompat.app.AppCompatActivity;
 
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.pytorch.IValue;
 import org.pytorch.Module;
 import org.pytorch.PyTorchAndroid;
 import org.pytorch.Tensor;
 
-import java.io.IOException;
-import java.io.InputStream;
 import java.nio.FloatBuffer;
 import java.nio.LongBuffer;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 public class MainActivity extends AppCompatActivity implements Runnable{
     // to be consistent with the model inputs defined in seq2seq_nmt.py, based on
@@ -35,6 +33,8 @@ public class MainActivity extends AppCompatActivity implements Runnable{
     private static final int MAX_LENGTH = 50;
     private static final String TAG = MainActivity.class.getName();
 
+    // loaded once in the background when the activity starts
+    private FutureTask<Vocabulary> mVocabulary;
     private Module mModuleEncoder;
     private Module mModuleDecoder;
     private Tensor mInputTensor;
@@ -53,6 +53,9 @@ public class MainActivity extends AppCompatActivity implements Runnable{
         mEditText = findViewById(R.id.etFrom);
         mTextView = findViewById(R.id.tvTo);
 
+        mVocabulary = new FutureTask<>(() -> Vocabulary.load(getAssets()));
+        new Thread(mVocabulary, "VocabularyLoader").start();
+
         mButton.setOnClickListener(new View.OnClickListener() {
             public void onClick(View v) {
                 mButton.setEnabled(false);
@@ -79,41 +82,23 @@ public class MainActivity extends AppCompatActivity implements Runnable{
             mModuleEncoder = PyTorchAndroid.loadModuleFromAsset(getAssets(), "optimized_encoder_150k.pth");
         }
 
-        String json;
-        JSONObject wrd2idx;
-        JSONObject idx2wrd;
+        final Vocabulary vocabulary;
         try {
-            InputStream is = getAssets().open("target_idx2wrd.json");
-            int size = is.available();
-            byte[] buffer = new byte[size];
-            is.read(buffer);
-            is.close();
-
-            json = new String(buffer, "UTF-8");
-            idx2wrd = new JSONObject(json);
-
-            is = getAssets().open("source_wrd2idx.json");
-            size = is.available();
-            buffer = new byte[size];
-            is.read(buffer);
-            is.close();
-
-            json = new String(buffer, "UTF-8");
-            wrd2idx = new JSONObject(json);
-        } catch (JSONException | IOException e) {
-            android.util.Log.e(TAG, "JSONException | IOException ", e);
+            vocabulary = mVocabulary.get();
+        } catch (ExecutionException e) {
+            android.util.Log.e(TAG, "Error loading vocabulary", e.getCause());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             return null;
         }
 
-        String french = text;
-        long[] inputs =  new long [french.split(" ").length];
-        try {
-            for (int i = 0; i < french.split(" ").length; i++) {
-                inputs[i] = wrd2idx.getLong(french.split(" ")[i]);
-            }
+        final long[] inputs = vocabulary.tokenize(text);
+        if (inputs == null) {
+            android.util.Log.e(TAG, "Word not in vocabulary: " + text);
+            return null;
         }
-        catch (JSONException e) {
-            android.util.Log.e(TAG, "JSONException ", e);
+        if (inputs.length == 0) {
             return null;
         }
 
@@ -155,14 +140,7 @@ public class MainActivity extends AppCompatActivity implements Runnable{
             final Tensor decoderOutputTensor = outputTuple[0].toTensor();
             hiddenTensor = outputTuple[1].toTensor();
             float[] outputs = decoderOutputTensor.getDataAsFloatArray();
-            int topIdx = 0;
-            double topVal = -Double.MAX_VALUE;
-            for (int j=0; j<outputs.length; j++) {
-                if (outputs[j] > topVal) {
-                    topVal = outputs[j];
-                    topIdx = j;
-                }
-            }
+            final int topIdx = TopK.argmax(outputs);
 
             if (topIdx == EOS_TOKEN) break;
 
@@ -172,14 +150,14 @@ public class MainActivity extends AppCompatActivity implements Runnable{
             mInputTensor = Tensor.fromBlob(mInputTensorBuffer, decoderInputShape);
         }
 
-        String english = "";
-        try {
-            for (int i = 0; i < result.size(); i++)
-                english += " " + idx2wrd.getString("" + result.get(i));
-        }
-        catch (JSONException e) {
-            android.util.Log.e(TAG, "JSONException ", e);
+        final StringBuilder english = new StringBuilder();
+        for (int i = 0; i < result.size(); i++) {
+            // indices the target vocabulary has no word for are left out
+            final String word = vocabulary.targetWord(result.get(i));
+            if (word != null) {
+                english.append(' ').append(word);
+            }
         }
-        return english;
+        return english.toString();
     }
 }
\ No newline at end of file
@@ -0,0 +1,186 @@
+// Copyright (c) 2020 Facebook, Inc. and its affiliates.
+// All rights reserved.
+//
+// This source code is licensed under the BSD-style license found in the
+// LICENSE file in the root directory of this source tree.
+
+package org.pytorch.demo.seq2seqnmt;
+
+/**
+ Argmax and top-K selection over primitive float scores, without boxing or sorting the whole array.
+
+ Scores are ranked from high to low, and equal scores keep the lower index first, so results
+ are the same as a stable descending sort. Small k uses a bounded min-heap (O(n log k)), large
+ k partitions the indices around a median-of-three pivot (O(n) on average) and only sorts the
+ selected ones.
+ */
+class TopK {
+    // below this k, or below count / PARTITION_RATIO, the bounded heap does less work than partitioning
+    private static final int HEAP_MAX_K = 16;
+    private static final int PARTITION_RATIO = 8;
+
+    static int argmax(float[] scores) {
+        return argmax(scores, 0, scores.length);
+    }
+
+    /**
+     Index of the first maximum in scores[from, to), or -1 if the range is empty.
+     */
+    static int argmax(float[] scores, int from, int to) {
+        if (from >= to) return -1;
+        int i = from + 1;
+        if (to - i >= 8) {
+            // four independent running maxima, so consecutive compares do not depend on each other
+            float m0 = scores[from], m1 = m0, m2 = m0, m3 = m0;
+            int i0 = from, i1 = from, i2 = from, i3 = from;
+            for (final int end = to - 3; i < end; i += 4) {
+                if (scores[i] > m0) { m0 = scores[i]; i0 = i; }
+                if (scores[i + 1] > m1) { m1 = scores[i + 1]; i1 = i + 1; }
+                if (scores[i + 2] > m2) { m2 = scores[i + 2]; i2 = i + 2; }
+                if (scores[i + 3] > m3) { m3 = scores[i + 3]; i3 = i + 3; }
+            }
+            int best = pick(m0, i0, m1, i1);
+            best = pick(scores[best], best, m2, i2);
+            best = pick(scores[best], best, m3, i3);
+            for (float max = scores[best]; i < to; i++) {
+                if (scores[i] > max) {
+                    max = scores[i];
+                    best = i;
+                }
+            }
+            return best;
+        }
+        int best = from;
+        for (float max = scores[from]; i < to; i++) {
+            if (scores[i] > max) {
+                max = scores[i];
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static int pick(float a, int ia, float b, int ib) {
+        return b > a || (b == a && ib < ia) ? ib : ia;
+    }
+
+    /**
+     Indices of the min(k, scores.length) highest scores, from high to low.
+     */
+    static int[] topK(float[] scores, int k) {
+        final int[] order = new int[scores.length];
+        final int n = topK(scores, scores.length, k, order);
+        final int[] top = new int[n];
+        System.arraycopy(order, 0, top, 0, n);
+        return top;
+    }
+
+    /**
+     Writes the indices of the min(k, count) highest of scores[0, count) to order, from high to
+     low, and returns how many were written. order is used as scratch space and must have room
+     for count indices.
+     */
+    static int topK(float[] scores, int count, int k, int[] order) {
+        k = Math.min(k, count);
+        if (k <= 0) return 0;
+        if (k <= HEAP_MAX_K || k <= count / PARTITION_RATIO) {
+            selectByHeap(scores, count, k, order);
+        } else {
+            selectByPartition(scores, count, k, order);
+        }
+        sortDescending(scores, order, k);
+        return k;
+    }
+
+    private static void selectByHeap(float[] scores, int count, int k, int[] heap) {
+        int heapSize = 0;
+        for (int i = 0; i < count; i++) {
+            if (heapSize < k) {
+                heap[heapSize] = i;
+                siftUp(scores, heap, heapSize++);
+            } else if (ranksAbove(scores, i, heap[0])) {
+                heap[0] = i;
+                siftDown(scores, heap, 0, heapSize);
+            }
+        }
+    }
+
+    private static void selectByPartition(float[] scores, int count, int k, int[] order) {
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        int lo = 0, hi = count - 1;
+        while (lo < hi) {
+            final int p = partition(scores, order, lo, hi);
+            if (p == k - 1) break;
+            if (p < k - 1) lo = p + 1;
+            else hi = p - 1;
+        }
+        // the first k entries are the selected ones, in no particular order; make them a min-heap
+        for (int pos = k / 2 - 1; pos >= 0; pos--) {
+            siftDown(scores, order, pos, k);
+        }
+    }
+
+    // moves the indices ranking above the pivot before it and returns the pivot's position
+    private static int partition(float[] scores, int[] order, int lo, int hi) {
+        final int mid = (lo + hi) >>> 1;
+        if (ranksAbove(scores, order[mid], order[lo])) swap(order, lo, mid);
+        if (ranksAbove(scores, order[hi], order[lo])) swap(order, lo, hi);
+        if (ranksAbove(scores, order[mid], order[hi])) swap(order, mid, hi);
+        final int pivot = order[hi];
+        int store = lo;
+        for (int i = lo; i < hi; i++) {
+            if (ranksAbove(scores, order[i], pivot)) {
+                swap(order, i, store++);
+            }
+        }
+        swap(order, store, hi);
+        return store;
+    }
+
+    // heap sort of the min-heap in order[0, k): repeatedly move the lowest remaining score to the back
+    private static void sortDescending(float[] scores, int[] order, int k) {
+        for (int end = k - 1; end > 0; end--) {
+            swap(order, 0, end);
+            siftDown(scores, order, 0, end);
+        }
+    }
+
+    // higher score first, lower index first on ties
+    private static boolean ranksAbove(float[] scores, int a, int b) {
+        return scores[a] > scores[b] || (scores[a] == scores[b] && a < b);
+    }
+
+    private static void siftUp(float[] scores, int[] heap, int pos) {
+        final int item = heap[pos];
+        while (pos > 0) {
+            final int parent = (pos - 1) >>> 1;
+            if (!ranksAbove(scores, heap[parent], item)) break;
+            heap[pos] = heap[parent];
+            pos = parent;
+        }
+        heap[pos] = item;
+    }
+
+    private static void siftDown(float[] scores, int[] heap, int pos, int size) {
+        final int item = heap[pos];
+        while (true) {
+            int child = 2 * pos + 1;
+            if (child >= size) break;
+            if (child + 1 < size && ranksAbove(scores, heap[child], heap[child + 1])) {
+                child++;
+            }
+            if (!ranksAbove(scores, item, heap[child])) break;
+            heap[pos] = heap[child];
+            pos = child;
+        }
+        heap[pos] = item;
+    }
+
+    private static void swap(int[] a, int i, int j) {
+        final int tmp = a[i];
+        a[i] = a[j];
+        a[j] = tmp;
+    }
+}
@@ -0,0 +1,167 @@
+// Copyright (c) 2020 Facebook, Inc. and its affiliates.
+// All rights reserved.
+//
+// This source code is licensed under the BSD-style license found in the
+// LICENSE file in the root directory of this source tree.
+
+package org.pytorch.demo.seq2seqnmt;
+
+import android.content.res.AssetManager;
+import android.util.JsonReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The source word to index and target index to word maps of the translation model, read once
+ * from their JSON assets into flat arrays.
+ *
+ * Target words are a String[] indexed by word index. Source words are an open-addressing hash
+ * table with linear probing, keys and indices in parallel arrays, so a word of the input can be
+ * looked up straight from the input string without cutting it out. Immutable and safe to share
+ * between threads once loaded.
+ */
+final class Vocabulary {
+    private static final String SOURCE_ASSET = "source_wrd2idx.json";
+    private static final String TARGET_ASSET = "target_idx2wrd.json";
+
+    private final String[] mSourceKeys;
+    private final int[] mSourceIndices;
+    private final int mSourceMask;
+    private final String[] mTargetWords;
+
+    private Vocabulary(String[] sourceKeys, int[] sourceIndices, String[] targetWords) {
+        mSourceKeys = sourceKeys;
+        mSourceIndices = sourceIndices;
+        mSourceMask = sourceKeys.length - 1;
+        mTargetWords = targetWords;
+    }
+
+    static Vocabulary load(AssetManager assets) throws IOException {
+        try (InputStream source = assets.open(SOURCE_ASSET); InputStream target = assets.open(TARGET_ASSET)) {
+            return read(source, target);
+        }
+    }
+
+    /**
+     * Reads the JSON objects of source word to index and target index to word, streaming them
+     * instead of building JSONObjects.
+     */
+    static Vocabulary read(InputStream source, InputStream target) throws IOException {
+        String[] words = new String[32 * 1024];
+        int[] indices = new int[words.length];
+        int count = 0;
+        try (JsonReader reader = new JsonReader(new InputStreamReader(source, StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (count == words.length) {
+                    words = Arrays.copyOf(words, 2 * count);
+                    indices = Arrays.copyOf(indices, 2 * count);
+                }
+                words[count] = reader.nextName();
+                indices[count] = reader.nextInt();
+                count++;
+            }
+            reader.endObject();
+        }
+
+        // at most half full, so probe sequences stay short
+        int capacity = 2;
+        while (capacity < 2 * count) {
+            capacity <<= 1;
+        }
+        final String[] keys = new String[capacity];
+        final int[] values = new int[capacity];
+        for (int i = 0; i < count; i++) {
+            int slot = mix(words[i].hashCode()) & (capacity - 1);
+            while (keys[slot] != null && !keys[slot].equals(words[i])) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            keys[slot] = words[i];
+            values[slot] = indices[i];
+        }
+
+        String[] targetWords = new String[16 * 1024];
+        int maxTargetIndex = -1;
+        try (JsonReader reader = new JsonReader(new InputStreamReader(target, StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final int index = Integer.parseInt(reader.nextName());
+                if (index >= targetWords.length) {
+                    targetWords = Arrays.copyOf(targetWords, Math.max(index + 1, 2 * targetWords.length));
+                }
+                targetWords[index] = reader.nextString();
+                maxTargetIndex = Math.max(maxTargetIndex, index);
+            }
+            reader.endObject();
+        }
+        return new Vocabulary(keys, values, Arrays.copyOf(targetWords, maxTargetIndex + 1));
+    }
+
+    // spreads the bits of String.hashCode(), whose low bits are weak for short words
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Index of the source word text[start, end), or -1 if it is not in the vocabulary.
+     */
+    int sourceIndex(String text, int start, int end) {
+        final int length = end - start;
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        int slot = mix(hash) & mSourceMask;
+        String key;
+        while ((key = mSourceKeys[slot]) != null) {
+            if (key.length() == length && text.regionMatches(start, key, 0, length)) {
+                return mSourceIndices[slot];
+            }
+            slot = (slot + 1) & mSourceMask;
+        }
+        return -1;
+    }
+
+    /**
+     * Indices of the space-separated words of text, in one pass over it, or null if a word is
+     * not in the vocabulary. Runs of spaces count as one.
+     */
+    long[] tokenize(String text) {
+        long[] indices = new long[16];
+        int count = 0;
+        final int length = text.length();
+        int start = 0;
+        while (start < length) {
+            if (text.charAt(start) == ' ') {
+                start++;
+                continue;
+            }
+            int end = start + 1;
+            while (end < length && text.charAt(end) != ' ') {
+                end++;
+            }
+            final int index = sourceIndex(text, start, end);
+            if (index < 0) {
+                return null;
+            }
+            if (count == indices.length) {
+                indices = Arrays.copyOf(indices, 2 * count);
+            }
+            indices[count++] = index;
+            start = end;
+        }
+        return Arrays.copyOf(indices, count);
+    }
+
+    /**
+     * The target word of the index, or null if there is none.
+     */
+    String targetWord(int index) {
+        return index >= 0 && index < mTargetWords.length ? mTargetWords[index] : null;
+    }
+}
@@ -1,6 +1,5 @@
 package org.pytorch.demo.speechrecognition;
 
-import android.content.Context;
 import android.media.AudioFormat;
 import android.media.AudioRecord;
 import android.media.MediaRecorder;
@@ -19,11 +18,6 @@ import org.pytorch.IValue;
 import org.pytorch.Module;
 import org.pytorch.Tensor;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.FloatBuffer;
 import java.util.Map;
 
@@ -113,28 +107,6 @@ public class MainActivity extends AppCompatActivity implements Runnable {
         }
     }
 
-    private String assetFilePath(Context context, String assetName) {
-        File file = new File(context.getFilesDir(), assetName);
-        if (file.exists() && file.length() > 0) {
-            return file.getAbsolutePath();
-        }
-
-        try (InputStream is = context.getAssets().open(assetName)) {
-            try (OutputStream os = new FileOutputStream(file)) {
-                byte[] buffer = new byte[4 * 1024];
-                int read;
-                while ((read = is.read(buffer)) != -1) {
-                    os.write(buffer, 0, read);
-                }
-                os.flush();
-            }
-            return file.getAbsolutePath();
-        } catch (IOException e) {
-            Log.e(TAG, assetName + ": " + e.getLocalizedMessage());
-        }
-        return null;
-    }
-
     private void showTranslationResult(String result) {
         mTextView.setText(result);
     }
@@ -196,9 +168,7 @@ public class MainActivity extends AppCompatActivity implements Runnable {
 
     private String recognize(float[] floatInputBuffer) {
         if (mModuleEncoder == null) {
-            final String moduleFileAbsoluteFilePath = new File(
-                    assetFilePath(this, "wav2vec_traced_quantized.pt")).getAbsolutePath();
-            mModuleEncoder = Module.load(moduleFileAbsoluteFilePath);
+            mModuleEncoder = ModelStore.load(this, "wav2vec_traced_quantized.pt");
         }
 
         double wav2vecinput[] = new double[INPUT_SIZE];
@@ -216,27 +186,12 @@ public class MainActivity extends AppCompatActivity implements Runnable {
         final float[] values = logitsTensor.getDataAsFloatArray();
 
         String result = "";
-        float row[] = new float[tokens.length];
-        for (int i = 0; i < values.length; i++) {
-            row[i % tokens.length] = values[i];
-            if (i > 0 && i % tokens.length == 0) {
-                int tid = argmax(row);
-                if (tid > 4) result = String.format("%s%s", result, tokens[tid]);
-                else if (tid == 4) result = String.format("%s ", result);
-            }
+        // one row of token logits per output frame
+        for (int offset = 0; offset + tokens.length <= values.length; offset += tokens.length) {
+            int tid = TopK.argmax(values, offset, offset + tokens.length) - offset;
+            if (tid > 4) result = String.format("%s%s", result, tokens[tid]);
+            else if (tid == 4) result = String.format("%s ", result);
         }
         return result;
     }
-
-    private int argmax(float[] array) {
-        int maxIdx = 0;
-        double maxVal = -Double.MAX_VALUE;
-        for (int j=0; j<array.length; j++) {
-            if (array[j] > maxVal) {
-                maxVal = array[j];
-                maxIdx = j;
-            }
-        }
-        return maxIdx;
-    }
 }
\ No newline at end of file
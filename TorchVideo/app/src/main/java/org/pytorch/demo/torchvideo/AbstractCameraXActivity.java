@@ -10,6 +10,7 @@ import android.Manifest;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.os.SystemClock;
+import android.util.Log;
 import android.util.Size;
 import android.view.TextureView;
 import android.widget.Toast;
@@ -25,11 +26,15 @@ import androidx.camera.core.Preview;
 import androidx.camera.core.PreviewConfig;
 import androidx.core.app.ActivityCompat;
 
+import java.io.File;
+import java.io.IOException;
+
 public abstract class AbstractCameraXActivity<R> extends BaseModuleActivity {
     private static final int REQUEST_CODE_CAMERA_PERMISSION = 200;
     private static final String[] PERMISSIONS = {Manifest.permission.CAMERA};
 
     private long mLastAnalysisResultTime;
+    protected final AnalysisMetrics mMetrics = new AnalysisMetrics(getClass().getSimpleName());
 
     protected abstract int getContentViewLayoutId();
 
@@ -90,13 +95,37 @@ public abstract class AbstractCameraXActivity<R> extends BaseModuleActivity {
             final R result = analyzeImage(image, rotationDegrees);
             if (result != null) {
                 mLastAnalysisResultTime = SystemClock.elapsedRealtime();
-                runOnUiThread(() -> applyToUiAnalyzeImageResult(result));
+                postResultToUi(result);
             }
         });
 
         CameraX.bindToLifecycle(this, preview, imageAnalysis);
     }
 
+    private void postResultToUi(R result) {
+        final long postTime = mMetrics.start();
+        runOnUiThread(() -> {
+            applyToUiAnalyzeImageResult(result);
+            mMetrics.record(AnalysisMetrics.Stage.UI_POST, postTime);
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        exportMetrics();
+        super.onDestroy();
+    }
+
+    private void exportMetrics() {
+        final File dir = getExternalFilesDir(null) != null ? getExternalFilesDir(null) : getFilesDir();
+        final File file = new File(dir, "metrics_" + getClass().getSimpleName() + ".json");
+        try {
+            mMetrics.exportJson(file);
+        } catch (IOException e) {
+            Log.e("Object Detection", "Error writing analysis metrics", e);
+        }
+    }
+
     @WorkerThread
     @Nullable
     protected abstract R analyzeImage(ImageProxy image, int rotationDegrees);
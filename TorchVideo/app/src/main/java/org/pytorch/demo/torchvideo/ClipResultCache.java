@@ -0,0 +1,245 @@
+package org.pytorch.demo.torchvideo;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ On-disk cache of the scores of each window of a video, so a video that was classified before
+ does not have to be decoded and run through the model again.
+
+ A video is identified by a hash of its first bytes, and its entry is only valid for the model
+ and window parameters it was computed with, all of which make up the file name of the entry.
+ The entry also records the length of the video and a hash of its last bytes: if both still
+ match, every stored window is reused; if the video has grown since, as a recording still being
+ written does, the windows that ended before its old duration are reused and only the tail
+ needs to be classified again. Each entry is one binary file of a fixed header followed by the
+ scores as little-endian floats, window after window, read through a memory map.
+ */
+class ClipResultCache {
+    private static final String TAG = "ClipResultCache";
+    private static final int MAGIC = 0x54564331;
+    private static final int VERSION = 1;
+    // bytes hashed at each end of a video
+    private static final int HASH_CHUNK_BYTES = 64 * 1024;
+    private static final String HASH_ALGORITHM = "SHA-1";
+    private static final int HASH_BYTES = 20;
+    // magic, version, classes, windows, content length, duration, tail hash
+    private static final int HEADER_BYTES = 4 + 4 + 4 + 4 + 8 + 8 + HASH_BYTES;
+
+    /**
+     What identifies the content of a video.
+     */
+    static class Fingerprint {
+        final byte[] headHash;
+        final byte[] tailHash;
+        final long length;
+
+        Fingerprint(byte[] headHash, byte[] tailHash, long length) {
+            this.headHash = headHash;
+            this.tailHash = tailHash;
+            this.length = length;
+        }
+    }
+
+    static class Entry {
+        final int numClasses;
+        final int windowCount;
+        // leading windows that are still valid for the video as it is now
+        final int reusableWindowCount;
+        private final FloatBuffer mScores;
+
+        Entry(int numClasses, int windowCount, int reusableWindowCount, FloatBuffer scores) {
+            this.numClasses = numClasses;
+            this.windowCount = windowCount;
+            this.reusableWindowCount = reusableWindowCount;
+            mScores = scores;
+        }
+
+        float[] getScores(int window) {
+            final float[] scores = new float[numClasses];
+            final FloatBuffer view = mScores.duplicate();
+            view.position(window * numClasses);
+            view.get(scores);
+            return scores;
+        }
+    }
+
+    private final File mDir;
+    private final String mParameters;
+    private final int mWindowMs;
+
+    /**
+     Entries are stored in dir and tied to the model asset and to windows of windowMs
+     milliseconds, each sampled as framesPerWindow frames of frameWidth x frameHeight pixels.
+     */
+    ClipResultCache(File dir, String modelName, int windowMs, int framesPerWindow, int frameWidth, int frameHeight) {
+        mDir = dir;
+        mParameters = modelName + "/" + windowMs + "/" + framesPerWindow + "/" + frameWidth + "x" + frameHeight;
+        mWindowMs = windowMs;
+    }
+
+    /**
+     Hashes both ends of the video, reading at most twice HASH_CHUNK_BYTES of it.
+     */
+    static Fingerprint fingerprint(Context context, Uri uri) throws IOException {
+        try (AssetFileDescriptor afd = context.getContentResolver().openAssetFileDescriptor(uri, "r")) {
+            if (afd == null) {
+                throw new IOException("Cannot open " + uri);
+            }
+            try (FileInputStream stream = new FileInputStream(afd.getFileDescriptor())) {
+                final FileChannel channel = stream.getChannel();
+                // raw resources are a range of the APK, anything else is a whole file
+                final long start = afd.getStartOffset();
+                final long length = afd.getLength() != AssetFileDescriptor.UNKNOWN_LENGTH
+                        ? afd.getLength() : channel.size() - start;
+                final ByteBuffer chunk = ByteBuffer.allocate((int) Math.min(HASH_CHUNK_BYTES, length));
+                final byte[] headHash = hash(channel, start, chunk);
+                final byte[] tailHash = hash(channel, start + length - chunk.capacity(), chunk);
+                return new Fingerprint(headHash, tailHash, length);
+            }
+        }
+    }
+
+    private static byte[] hash(FileChannel channel, long position, ByteBuffer chunk) throws IOException {
+        chunk.clear();
+        while (chunk.hasRemaining()) {
+            if (channel.read(chunk, position + chunk.position()) < 0) {
+                throw new IOException("Unexpected end of video");
+            }
+        }
+        chunk.flip();
+        final MessageDigest digest = newDigest();
+        digest.update(chunk);
+        return digest.digest();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private File entryFile(Fingerprint fingerprint) {
+        final MessageDigest digest = newDigest();
+        digest.update(mParameters.getBytes(StandardCharsets.UTF_8));
+        digest.update(fingerprint.headHash);
+        final StringBuilder name = new StringBuilder();
+        for (byte b : digest.digest()) {
+            name.append(String.format("%02x", b));
+        }
+        return new File(mDir, name.append(".bin").toString());
+    }
+
+    /**
+     Returns the stored entry of the video, or null if there is none or none of its windows
+     are valid anymore.
+     */
+    @Nullable
+    Entry load(Fingerprint fingerprint) {
+        final File file = entryFile(fingerprint);
+        if (!file.exists()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            final FileChannel channel = raf.getChannel();
+            final long fileSize = channel.size();
+            if (fileSize < HEADER_BYTES) {
+                return invalid(file);
+            }
+            final ByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize).order(ByteOrder.LITTLE_ENDIAN);
+            if (map.getInt() != MAGIC || map.getInt() != VERSION) {
+                return invalid(file);
+            }
+            final int numClasses = map.getInt();
+            final int windowCount = map.getInt();
+            final long length = map.getLong();
+            final double durationMs = map.getDouble();
+            final byte[] tailHash = new byte[HASH_BYTES];
+            map.get(tailHash);
+            if (fileSize != HEADER_BYTES + 4L * numClasses * windowCount) {
+                return invalid(file);
+            }
+
+            final int reusable;
+            if (length == fingerprint.length && MessageDigest.isEqual(tailHash, fingerprint.tailHash)) {
+                reusable = windowCount;
+            } else if (fingerprint.length > length) {
+                // the last window was cut short by the old end of the video
+                reusable = Math.min(windowCount, (int) (durationMs / mWindowMs));
+            } else {
+                reusable = 0;
+            }
+            if (reusable == 0) {
+                return null;
+            }
+            // the mapping stays valid after the channel is closed
+            return new Entry(numClasses, windowCount, reusable, map.asFloatBuffer());
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading " + file, e);
+            return null;
+        }
+    }
+
+    private static Entry invalid(File file) {
+        Log.w(TAG, "Deleting invalid entry " + file);
+        file.delete();
+        return null;
+    }
+
+    /**
+     Stores the scores of the leading windows of the video, which was durationMs long, replacing
+     any previous entry. All scores must have the same length.
+     */
+    void store(Fingerprint fingerprint, double durationMs, List<float[]> scores) throws IOException {
+        if (scores.isEmpty()) {
+            return;
+        }
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            throw new IOException("Cannot create " + mDir);
+        }
+        final int numClasses = scores.get(0).length;
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 4 * numClasses * scores.size())
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(numClasses).putInt(scores.size())
+                .putLong(fingerprint.length).putDouble(durationMs).put(fingerprint.tailHash);
+        final FloatBuffer floats = buffer.asFloatBuffer();
+        for (float[] windowScores : scores) {
+            floats.put(windowScores, 0, numClasses);
+        }
+        buffer.clear();
+
+        // written aside and renamed, so a reader never sees half an entry
+        final File file = entryFile(fingerprint);
+        final File temp = new File(mDir, file.getName() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(temp, "rw")) {
+            final FileChannel channel = raf.getChannel();
+            channel.truncate(0);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot write " + file);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.pytorch.demo.torchvideo;
+
+import org.pytorch.Tensor;
+
+import java.nio.FloatBuffer;
+
+/**
+ The most recent clipLength preprocessed frames of a stream, ready to be fed to the model as one
+ clip in temporal order at any time.
+
+ Frames are kept in a ring of clipLength slots that is stored twice in a row, so the frames from
+ any slot onwards are contiguous: a new frame is written to its slot and copied to the slot's
+ mirror, and the clip ending with it is a view of the storage that starts at the oldest frame.
+ One Tensor is created per start slot up front, so getting a clip copies nothing and old frames
+ are never converted again. Frames are laid out one after another, each in CHW order, the way
+ TensorImageUtils and YuvTensorConverter write them. Not thread safe.
+ */
+class ClipRingBuffer {
+    private final int mClipLength;
+    private final int mFrameSize;
+    private final FloatBuffer mStorage;
+    // mClips[slot] views the clipLength frames starting at slot
+    private final Tensor[] mClips;
+
+    private int mNextSlot;
+    private int mFrameCount;
+
+    ClipRingBuffer(int clipLength, int frameSize, long[] clipShape) {
+        mClipLength = clipLength;
+        mFrameSize = frameSize;
+        mStorage = Tensor.allocateFloatBuffer(2 * clipLength * frameSize);
+        mClips = new Tensor[clipLength];
+        for (int slot = 0; slot < clipLength; slot++) {
+            final FloatBuffer view = mStorage.duplicate();
+            view.position(slot * frameSize);
+            view.limit((slot + clipLength) * frameSize);
+            mClips[slot] = Tensor.fromBlob(view.slice(), clipShape);
+        }
+    }
+
+    FloatBuffer getStorage() {
+        return mStorage;
+    }
+
+    /**
+     Offset in getStorage() the next frame must be written to before calling commitFrame().
+     */
+    int getNextFrameOffset() {
+        return mNextSlot * mFrameSize;
+    }
+
+    void commitFrame() {
+        final FloatBuffer source = mStorage.duplicate();
+        source.position(mNextSlot * mFrameSize);
+        source.limit((mNextSlot + 1) * mFrameSize);
+        final FloatBuffer mirror = mStorage.duplicate();
+        mirror.position((mNextSlot + mClipLength) * mFrameSize);
+        mirror.put(source);
+
+        mNextSlot = (mNextSlot + 1) % mClipLength;
+        if (mFrameCount < mClipLength) {
+            mFrameCount++;
+        }
+    }
+
+    void clear() {
+        mNextSlot = 0;
+        mFrameCount = 0;
+    }
+
+    boolean isFull() {
+        return mFrameCount == mClipLength;
+    }
+
+    /**
+     The clip of the last clipLength frames, oldest first. Only valid once isFull(), and only
+     until the next frame is written.
+     */
+    Tensor getClip() {
+        // once the ring is full, the next slot to write holds the oldest frame
+        return mClips[mNextSlot];
+    }
+}
@@ -2,10 +2,20 @@ package org.pytorch.demo.torchvideo;
 
 public final class Constants {
 
+    public final static String MODULE_ASSET_NAME = "video_classification.pt";
     public final static float[] MEAN_RGB = new float[] {0.45f, 0.45f, 0.45f};
     public final static float[] STD_RGB = new float[] {0.225f, 0.225f, 0.225f};
     public final static int COUNT_OF_FRAMES_PER_INFERENCE = 4;
     public final static int TARGET_VIDEO_SIZE = 160;
-    public final static int MODEL_INPUT_SIZE = COUNT_OF_FRAMES_PER_INFERENCE * 3 * TARGET_VIDEO_SIZE * TARGET_VIDEO_SIZE;
+    public final static int FRAME_SIZE = 3 * TARGET_VIDEO_SIZE * TARGET_VIDEO_SIZE;
+    public final static int MODEL_INPUT_SIZE = COUNT_OF_FRAMES_PER_INFERENCE * FRAME_SIZE;
+    // live classification runs on the latest frames every LIVE_HOP_FRAMES frames: 1, 2 or up to
+    // COUNT_OF_FRAMES_PER_INFERENCE for clips that do not overlap
+    public final static int LIVE_HOP_FRAMES = 1;
     public final static int TOP_COUNT = 5;
+    // per-second labels of a video follow an exponential moving average of the scores with this
+    // weight for the newest window; the dominant class switches when another one leads by the margin
+    public final static float SMOOTHING_ALPHA = 0.5f;
+    public final static int SMOOTHING_WINDOW = 5;
+    public final static float SMOOTHING_SWITCH_MARGIN = 0.5f;
 }
@@ -1,12 +1,5 @@
 package org.pytorch.demo.torchvideo;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.ImageFormat;
-import android.graphics.Matrix;
-import android.graphics.Rect;
-import android.graphics.YuvImage;
-import android.media.Image;
 import android.os.SystemClock;
 import android.view.TextureView;
 import android.view.ViewStub;
@@ -18,22 +11,16 @@ import androidx.camera.core.ImageProxy;
 
 import org.pytorch.IValue;
 import org.pytorch.Module;
-import org.pytorch.PyTorchAndroid;
 import org.pytorch.Tensor;
-import org.pytorch.torchvision.TensorImageUtils;
-
-import java.io.ByteArrayOutputStream;
-import java.nio.ByteBuffer;
-import java.nio.FloatBuffer;
-import java.util.Arrays;
-import java.util.Comparator;
 
 
 public class LiveVideoClassificationActivity extends AbstractCameraXActivity<LiveVideoClassificationActivity.AnalysisResult> {
-        private Module mModule = null;
+        private volatile Module mModule = null;
         private TextView mResultView;
-        private int mFrameCount = 0;
-        private FloatBuffer inTensorBuffer;
+        private int mFramesSinceInference = 0;
+        private final ClipRingBuffer mClipBuffer = new ClipRingBuffer(Constants.COUNT_OF_FRAMES_PER_INFERENCE, Constants.FRAME_SIZE,
+                new long[]{1, 3, Constants.COUNT_OF_FRAMES_PER_INFERENCE, Constants.TARGET_VIDEO_SIZE, Constants.TARGET_VIDEO_SIZE});
+        private YuvTensorConverter mConverter;
 
 
     static class AnalysisResult {
@@ -63,84 +50,56 @@ public class LiveVideoClassificationActivity extends AbstractCameraXActivity<Liv
             mResultView.invalidate();
         }
 
-        private Bitmap imgToBitmap(Image image) {
-            Image.Plane[] planes = image.getPlanes();
-            ByteBuffer yBuffer = planes[0].getBuffer();
-            ByteBuffer uBuffer = planes[1].getBuffer();
-            ByteBuffer vBuffer = planes[2].getBuffer();
-
-            int ySize = yBuffer.remaining();
-            int uSize = uBuffer.remaining();
-            int vSize = vBuffer.remaining();
-
-            byte[] nv21 = new byte[ySize + uSize + vSize];
-            yBuffer.get(nv21, 0, ySize);
-            vBuffer.get(nv21, ySize, vSize);
-            uBuffer.get(nv21, ySize + vSize, uSize);
-
-            YuvImage yuvImage = new YuvImage(nv21, ImageFormat.NV21, image.getWidth(), image.getHeight(), null);
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            yuvImage.compressToJpeg(new Rect(0, 0, yuvImage.getWidth(), yuvImage.getHeight()), 75, out);
-
-            byte[] imageBytes = out.toByteArray();
-            return BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length);
+        @Override
+        protected void onDestroy() {
+            // the background thread running analyzeImage is stopped by the base class
+            super.onDestroy();
+            if (mModule != null) {
+                ModuleRegistry.getInstance(this).release(Constants.MODULE_ASSET_NAME);
+                mModule = null;
+            }
         }
 
-
         @Override
         @WorkerThread
         @Nullable
         protected AnalysisResult analyzeImage(ImageProxy image, int rotationDegrees) {
             if (mModule == null) {
-                mModule = PyTorchAndroid.loadModuleFromAsset(getAssets(), "video_classification.pt");
+                mModule = ModuleRegistry.getInstance(this).acquire(this, Constants.MODULE_ASSET_NAME);
             }
 
-            if (mFrameCount == 0)
-                inTensorBuffer = Tensor.allocateFloatBuffer(Constants.MODEL_INPUT_SIZE);
-
-            Bitmap bitmap = imgToBitmap(image.getImage());
-            Matrix matrix = new Matrix();
-            matrix.postRotate(90.0f);
-            bitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
-
-            float ratio = Math.min(bitmap.getWidth(), bitmap.getHeight()) / 160.0f;
-            Bitmap resizedBitmap = Bitmap.createScaledBitmap(bitmap, (int)(bitmap.getWidth() / ratio), (int)(bitmap.getHeight() / ratio), true);
-            Bitmap centerCroppedBitmap = Bitmap.createBitmap(resizedBitmap,
-                    resizedBitmap.getWidth() > resizedBitmap.getHeight() ? (resizedBitmap.getWidth() - resizedBitmap.getHeight()) / 2 : 0,
-                    resizedBitmap.getHeight() > resizedBitmap.getWidth() ? (resizedBitmap.getHeight() - resizedBitmap.getWidth()) / 2 : 0,
-                    Constants.TARGET_VIDEO_SIZE, Constants.TARGET_VIDEO_SIZE);
-
-            TensorImageUtils.bitmapToFloatBuffer(centerCroppedBitmap, 0, 0,
-                    Constants.TARGET_VIDEO_SIZE, Constants.TARGET_VIDEO_SIZE, Constants.MEAN_RGB, Constants.STD_RGB, inTensorBuffer,
-                    (Constants.COUNT_OF_FRAMES_PER_INFERENCE - 1) * mFrameCount * Constants.TARGET_VIDEO_SIZE * Constants.TARGET_VIDEO_SIZE);
-
-            mFrameCount++;
-            if (mFrameCount < 4) {
+            if (mConverter == null) {
+                mConverter = new YuvTensorConverter(Constants.TARGET_VIDEO_SIZE, Constants.TARGET_VIDEO_SIZE,
+                        YuvTensorConverter.ScaleMode.CENTER_CROP, Constants.MEAN_RGB, Constants.STD_RGB);
+            }
+            final long fillStartTime = mMetrics.start();
+            // each frame is converted once, into the clip buffer that keeps the latest frames
+            mConverter.convert(image.getImage(), 90, mClipBuffer.getStorage(), mClipBuffer.getNextFrameOffset());
+            mClipBuffer.commitFrame();
+            mMetrics.record(AnalysisMetrics.Stage.TENSOR_FILL, fillStartTime);
+
+            mFramesSinceInference++;
+            if (!mClipBuffer.isFull() || mFramesSinceInference < Constants.LIVE_HOP_FRAMES) {
                 return null;
             }
 
-            mFrameCount = 0;
-            Tensor inputTensor = Tensor.fromBlob(inTensorBuffer, new long[]{1, 3, Constants.COUNT_OF_FRAMES_PER_INFERENCE, 160, 160});
+            mFramesSinceInference = 0;
+            Tensor inputTensor = mClipBuffer.getClip();
 
+            final long forwardStartTime = mMetrics.start();
             final long startTime = SystemClock.elapsedRealtime();
             Tensor outputTensor = mModule.forward(IValue.from(inputTensor)).toTensor();
             final long inferenceTime = SystemClock.elapsedRealtime() - startTime;
+            final long time = mMetrics.record(AnalysisMetrics.Stage.FORWARD, forwardStartTime);
 
             final float[] scores = outputTensor.getDataAsFloatArray();
-            Integer scoresIdx[] = new Integer[scores.length];
-            for (int i = 0; i < scores.length; i++)
-                scoresIdx[i] = i;
-
-            Arrays.sort(scoresIdx, new Comparator<Integer>() {
-                @Override public int compare(final Integer o1, final Integer o2) {
-                    return Float.compare(scores[o2], scores[o1]);
-                }
-            });
+            final int[] scoresIdx = TopK.topK(scores, Constants.TOP_COUNT);
 
             String tops[] = new String[Constants.TOP_COUNT];
             for (int j = 0; j < Constants.TOP_COUNT; j++)
                 tops[j] = MainActivity.getClasses()[scoresIdx[j]];
             final String result = String.join(", ", tops);
+            mMetrics.record(AnalysisMetrics.Stage.DECODE, time);
             return new AnalysisResult(String.format("%s - %dms", result, inferenceTime));
         }
     }
@@ -1,43 +1,45 @@
 package org.pytorch.demo.torchvideo;
 
 import android.content.Intent;
-import android.graphics.Bitmap;
 import android.media.MediaMetadataRetriever;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.SystemClock;
 import android.util.Log;
 import android.util.Pair;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.widget.Button;
 import android.widget.TextView;
 import android.widget.VideoView;
 
+import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 
 import org.pytorch.IValue;
 import org.pytorch.Module;
-import org.pytorch.PyTorchAndroid;
 import org.pytorch.Tensor;
-import org.pytorch.torchvision.TensorImageUtils;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.FloatBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
 import java.util.List;
 
 
 public class MainActivity extends AppCompatActivity implements Runnable {
+    // boolean extra that starts the activity with offline analysis on, which the menu can toggle
+    public static final String EXTRA_OFFLINE_ANALYSIS = "org.pytorch.demo.torchvideo.OFFLINE_ANALYSIS";
+
     private final String TAG = MainActivity.class.getSimpleName();
     private final String[] mTestVideos = {"video1", "video2", "video3"};
 
     private Button mButtonPauseResume;
     private Button mButtonTest;
-    private Module mModule = null;
+    private volatile Module mModule = null;
     private int mTestVideoIndex = 0;
     private static String[] mClasses;
     private List<String> mResults = new ArrayList<>();
@@ -45,16 +47,28 @@ public class MainActivity extends AppCompatActivity implements Runnable {
     private TextView mTextView;
     private Uri mVideoUri;
     private Thread mThread;
+    // model input of one window, reused for every window
+    private FloatBuffer mInputTensorBuffer;
+    private Tensor mInputTensor;
     private boolean mStopThread;
+    // classify a video as fast as possible before showing results during playback, and write them
+    // to a timeline file, instead of classifying each second as it plays
+    private volatile boolean mOfflineAnalysis;
+    private volatile OfflineVideoAnalyzer mOfflineAnalyzer;
+    private ClipResultCache mResultCache;
 
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+        mOfflineAnalysis = getIntent().getBooleanExtra(EXTRA_OFFLINE_ANALYSIS, false);
 
         try {
-            mModule = PyTorchAndroid.loadModuleFromAsset(getAssets(), "video_classification.pt");
+            // load the model and run it once in the background, the live activity shares the instance
+            ModuleRegistry.getInstance(this).warmUp(this, Constants.MODULE_ASSET_NAME,
+                    IValue.from(Tensor.fromBlob(new float[Constants.MODEL_INPUT_SIZE],
+                            new long[]{1, 3, Constants.COUNT_OF_FRAMES_PER_INFERENCE, Constants.TARGET_VIDEO_SIZE, Constants.TARGET_VIDEO_SIZE})));
 
             BufferedReader br = new BufferedReader(new InputStreamReader(getAssets().open("classes.txt")));
             String line;
@@ -64,6 +78,9 @@ public class MainActivity extends AppCompatActivity implements Runnable {
             }
             mClasses = new String[classes.size()];
             classes.toArray(mClasses);
+
+            mResultCache = new ClipResultCache(new File(getCacheDir(), "clip_results"), Constants.MODULE_ASSET_NAME,
+                    1000, Constants.COUNT_OF_FRAMES_PER_INFERENCE, Constants.TARGET_VIDEO_SIZE, Constants.TARGET_VIDEO_SIZE);
         } catch (IOException e) {
             Log.e(TAG, "Error reading model file", e);
             finish();
@@ -127,12 +144,35 @@ public class MainActivity extends AppCompatActivity implements Runnable {
         startVideo();
     }
 
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_main, menu);
+        menu.findItem(R.id.action_offline_analysis).setChecked(mOfflineAnalysis);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_offline_analysis) {
+            mOfflineAnalysis = !item.isChecked();
+            item.setChecked(mOfflineAnalysis);
+            // classify the current video again in the new mode
+            mTextView.setText("");
+            mTextView.setVisibility(View.INVISIBLE);
+            mStopThread = true;
+            startVideo();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
     private void startVideo() {
         mVideoView.setVideoURI(mVideoUri);
         mVideoView.start();
         mButtonPauseResume.setVisibility(View.VISIBLE);
         mButtonPauseResume.setText(getString(R.string.pause));
 
+        cancelOfflineAnalysis();
         if (mThread != null && mThread.isAlive()) {
             try {
                 mThread.join();
@@ -152,6 +192,14 @@ public class MainActivity extends AppCompatActivity implements Runnable {
         mButtonPauseResume.setVisibility(View.INVISIBLE);
         mButtonTest.setEnabled(true);
         mStopThread = true;
+        cancelOfflineAnalysis();
+    }
+
+    private void cancelOfflineAnalysis() {
+        final OfflineVideoAnalyzer analyzer = mOfflineAnalyzer;
+        if (analyzer != null) {
+            analyzer.cancel();
+        }
     }
 
     private Uri getMedia(String mediaName) {
@@ -172,106 +220,235 @@ public class MainActivity extends AppCompatActivity implements Runnable {
         stopVideo();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mModule != null) {
+            ModuleRegistry.getInstance(this).release(Constants.MODULE_ASSET_NAME);
+            mModule = null;
+        }
+    }
+
     @Override
     public void run() {
+        if (mModule == null) {
+            mModule = ModuleRegistry.getInstance(this).acquire(this, Constants.MODULE_ASSET_NAME);
+        }
 
         MediaMetadataRetriever mmr = new MediaMetadataRetriever();
         mmr.setDataSource(this.getApplicationContext(), mVideoUri);
         String stringDuration = mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+        mmr.release();
         double durationMs = Double.parseDouble(stringDuration);
 
+        // scores of a video classified before are read back instead of computed again
+        ClipResultCache.Fingerprint fingerprint = null;
+        ClipResultCache.Entry cached = null;
+        try {
+            fingerprint = ClipResultCache.fingerprint(this, mVideoUri);
+            cached = mResultCache.load(fingerprint);
+        } catch (IOException e) {
+            Log.e(TAG, "Error hashing video " + mVideoUri, e);
+        }
+        final int reusable = cached != null ? cached.reusableWindowCount : 0;
+        if (reusable > 0) {
+            Log.d(TAG, String.format("Reusing %d cached windows", reusable));
+        }
+
+        mResults.clear();
+        final List<float[]> scores = new ArrayList<>();
+        final ScoreAggregator aggregator = mOfflineAnalysis
+                ? runOffline(durationMs, cached, scores) : runRealtime(durationMs, cached, scores);
+        if (fingerprint != null && scores.size() > reusable) {
+            try {
+                mResultCache.store(fingerprint, durationMs, scores);
+            } catch (IOException e) {
+                Log.e(TAG, "Error caching results of " + mVideoUri, e);
+            }
+        }
+
+        // video playing is completed
+        if (!mStopThread && aggregator != null) {
+            final String summary = labels(aggregator.getVideoTopK(Constants.TOP_COUNT));
+            runOnUiThread(() -> mTextView.setText(String.format("Video: %s", summary)));
+        }
+        if (!mStopThread) {
+            runOnUiThread(() -> mButtonPauseResume.setVisibility(View.INVISIBLE));
+            runOnUiThread(() -> mButtonTest.setEnabled(true));
+        }
+    }
+
+    // classifies each second of the video while it plays, adding the scores of each window to scores
+    @Nullable
+    private ScoreAggregator runRealtime(double durationMs, @Nullable ClipResultCache.Entry cached, List<float[]> scores) {
+        final int reusable = cached != null ? cached.reusableWindowCount : 0;
+        // the windows are classified in order, so the video is decoded once from the first window
+        // that is not cached to the end
+        VideoFrameSampler sampler = null;
+
         // for each second of the video, make inference to get the class label
         int durationTo = (int) Math.ceil(durationMs / 1000);
 
-        mResults.clear();
+        ScoreAggregator aggregator = null;
         for (int i = 0; !mStopThread && i < durationTo; i++) {
             int from = i * 1000;
             int to = (i + 1) * 1000;
             if (i == durationTo - 1)
-                to = (int) Math.ceil(durationMs) - (i * 1000);
-
-            final Pair<Integer[], Long> pair = getResult(from, to, mmr);
-            final Integer[] scoresIdx = pair.first;
-            String tops[] = new String[Constants.TOP_COUNT];
-            for (int j = 0; j < Constants.TOP_COUNT; j++)
-                tops[j] = mClasses[scoresIdx[j]];
-            final String result = String.join(", ", tops);
-            final long inferenceTime = pair.second;
-
-            if (i * 1000 > mVideoView.getCurrentPosition()) {
-                try {
-                    Thread.sleep(i * 1000 - mVideoView.getCurrentPosition());
-                } catch (InterruptedException e) {
-                    Log.e(TAG, "Thread sleep exception: " + e.getLocalizedMessage());
+                to = (int) Math.ceil(durationMs);
+
+            final float[] windowScores;
+            final long inferenceTime;
+            if (i < reusable) {
+                windowScores = cached.getScores(i);
+                inferenceTime = 0;
+            } else {
+                if (sampler == null) {
+                    try {
+                        sampler = new VideoFrameSampler(getApplicationContext(), mVideoUri,
+                                Constants.TARGET_VIDEO_SIZE, Constants.TARGET_VIDEO_SIZE);
+                    } catch (IOException e) {
+                        Log.e(TAG, "Error opening video " + mVideoUri, e);
+                        break;
+                    }
+                    if (from > 0) {
+                        sampler.seekTo(from * 1000L);
+                    }
                 }
-            }
-
-            while (!mVideoView.isPlaying()) {
-                if (mStopThread || (mVideoView.getCurrentPosition() >= mVideoView.getDuration())) break;
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    Log.e(TAG, "Thread sleep exception: " + e.getLocalizedMessage());
+                final Pair<float[], Long> pair = getResult(from, to, sampler);
+                if (pair == null) {
+                    break;
                 }
+                windowScores = pair.first;
+                inferenceTime = pair.second;
             }
+            scores.add(windowScores);
 
-            final int finalI = i;
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    mTextView.setVisibility(View.VISIBLE);
-                    mTextView.setText(String.format("%ds: %s - %dms", finalI +1, result, inferenceTime));
-                }
-            });
+            // labels follow the smoothed scores, so a single odd window does not change them
+            if (aggregator == null) {
+                aggregator = newAggregator(windowScores.length);
+            }
+            if (aggregator.update(windowScores)) {
+                Log.d(TAG, String.format("%ds: dominant class is now %s", i + 1, mClasses[aggregator.getDominantClass()]));
+            }
+            final String result = labels(TopK.topK(aggregator.getMovingAverage(), Constants.TOP_COUNT));
+            showResultWhenPlayed(i, result, inferenceTime);
             mResults.add(result);
         }
+        if (sampler != null) {
+            sampler.close();
+        }
+        return aggregator;
+    }
 
-        // video playing is completed
-        if (!mStopThread) {
-            runOnUiThread(() -> mButtonPauseResume.setVisibility(View.INVISIBLE));
-            runOnUiThread(() -> mButtonTest.setEnabled(true));
+    // classifies the whole video up front as fast as possible, then shows the results as it plays
+    @Nullable
+    private ScoreAggregator runOffline(double durationMs, @Nullable ClipResultCache.Entry cached, List<float[]> scores) {
+        final int reusable = cached != null ? cached.reusableWindowCount : 0;
+        final List<OfflineVideoAnalyzer.WindowResult> windows = new ArrayList<>();
+        for (int i = 0; i < reusable; i++) {
+            windows.add(new OfflineVideoAnalyzer.WindowResult(i, cached.getScores(i), 0));
+        }
+
+        final OfflineVideoAnalyzer analyzer = new OfflineVideoAnalyzer(mModule);
+        mOfflineAnalyzer = analyzer;
+        try {
+            final long startTime = SystemClock.elapsedRealtime();
+            windows.addAll(analyzer.analyze(this, mVideoUri, durationMs, reusable));
+            Log.d(TAG, String.format("Analyzed %d windows in %dms", windows.size() - reusable, SystemClock.elapsedRealtime() - startTime));
+        } catch (IOException e) {
+            Log.e(TAG, "Error opening video " + mVideoUri, e);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            mOfflineAnalyzer = null;
+        }
+        if (mStopThread || windows.isEmpty()) {
+            return null;
+        }
+
+        final ScoreAggregator aggregator = newAggregator(windows.get(0).scores.length);
+        for (OfflineVideoAnalyzer.WindowResult window : windows) {
+            scores.add(window.scores);
+            if (aggregator.update(window.scores)) {
+                Log.d(TAG, String.format("%ds: dominant class is now %s", window.second + 1, mClasses[aggregator.getDominantClass()]));
+            }
+            mResults.add(labels(TopK.topK(aggregator.getMovingAverage(), Constants.TOP_COUNT)));
         }
+        try {
+            final File timeline = new File(getFilesDir(), "timeline-" + Integer.toHexString(mVideoUri.toString().hashCode()) + ".tsv");
+            OfflineVideoAnalyzer.writeTimeline(timeline, windows, mResults);
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing timeline", e);
+        }
+
+        for (int i = 0; !mStopThread && i < windows.size(); i++) {
+            showResultWhenPlayed(windows.get(i).second, mResults.get(i), windows.get(i).inferenceTimeMs);
+        }
+        return aggregator;
     }
 
+    private static ScoreAggregator newAggregator(int numClasses) {
+        return new ScoreAggregator(numClasses, Constants.SMOOTHING_ALPHA,
+                Constants.SMOOTHING_WINDOW, Constants.SMOOTHING_SWITCH_MARGIN);
+    }
 
-    private Pair<Integer[], Long> getResult(int fromMs, int toMs, MediaMetadataRetriever mmr) {
+    // waits until playback reaches the second and shows its result
+    private void showResultWhenPlayed(int second, String result, long inferenceTime) {
+        if (second * 1000 > mVideoView.getCurrentPosition()) {
+            try {
+                Thread.sleep(second * 1000 - mVideoView.getCurrentPosition());
+            } catch (InterruptedException e) {
+                Log.e(TAG, "Thread sleep exception: " + e.getLocalizedMessage());
+            }
+        }
 
-        FloatBuffer inTensorBuffer = Tensor.allocateFloatBuffer(Constants.MODEL_INPUT_SIZE);
+        while (!mVideoView.isPlaying()) {
+            if (mStopThread || (mVideoView.getCurrentPosition() >= mVideoView.getDuration())) break;
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Log.e(TAG, "Thread sleep exception: " + e.getLocalizedMessage());
+            }
+        }
+
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                mTextView.setVisibility(View.VISIBLE);
+                mTextView.setText(String.format("%ds: %s - %dms", second + 1, result, inferenceTime));
+            }
+        });
+    }
 
-        // extract 4 frames for each second of the video and pack them to a float buffer to be converted to the model input tensor
-        for (int i = 0; i < Constants.COUNT_OF_FRAMES_PER_INFERENCE; i++) {
-            long timeUs = 1000 * (fromMs + (int) ((toMs - fromMs) * i / (Constants.COUNT_OF_FRAMES_PER_INFERENCE - 1.)));
-            Bitmap bitmap = mmr.getFrameAtTime(timeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
-            float ratio = Math.min(bitmap.getWidth(), bitmap.getHeight()) / (float)Constants.TARGET_VIDEO_SIZE;
-            Bitmap resizedBitmap = Bitmap.createScaledBitmap(bitmap, (int)(bitmap.getWidth() / ratio), (int)(bitmap.getHeight() / ratio), true);
-            Bitmap centerCroppedBitmap = Bitmap.createBitmap(resizedBitmap,
-                    resizedBitmap.getWidth() > resizedBitmap.getHeight() ? (resizedBitmap.getWidth() - resizedBitmap.getHeight()) / 2 : 0,
-                    resizedBitmap.getHeight() > resizedBitmap.getWidth() ? (resizedBitmap.getHeight() - resizedBitmap.getWidth()) / 2 : 0,
-                    Constants.TARGET_VIDEO_SIZE, Constants.TARGET_VIDEO_SIZE);
 
-            TensorImageUtils.bitmapToFloatBuffer(centerCroppedBitmap, 0, 0,
-                    Constants.TARGET_VIDEO_SIZE, Constants.TARGET_VIDEO_SIZE, Constants.MEAN_RGB, Constants.STD_RGB, inTensorBuffer,
-                    (Constants.COUNT_OF_FRAMES_PER_INFERENCE - 1) * i * Constants.TARGET_VIDEO_SIZE * Constants.TARGET_VIDEO_SIZE);
+    private static String labels(int[] classIndices) {
+        String tops[] = new String[classIndices.length];
+        for (int j = 0; j < classIndices.length; j++)
+            tops[j] = mClasses[classIndices[j]];
+        return String.join(", ", tops);
+    }
+
+    @Nullable
+    private Pair<float[], Long> getResult(int fromMs, int toMs, VideoFrameSampler sampler) {
+        if (mInputTensor == null) {
+            mInputTensorBuffer = Tensor.allocateFloatBuffer(Constants.MODEL_INPUT_SIZE);
+            mInputTensor = Tensor.fromBlob(mInputTensorBuffer,
+                    new long[]{1, 3, Constants.COUNT_OF_FRAMES_PER_INFERENCE, Constants.TARGET_VIDEO_SIZE, Constants.TARGET_VIDEO_SIZE});
         }
 
-        Tensor inputTensor = Tensor.fromBlob(inTensorBuffer, new long[]{1, 3, Constants.COUNT_OF_FRAMES_PER_INFERENCE, 160, 160});
+        // sample 4 frames evenly over the window, decoded and converted straight into the model input
+        if (!sampler.sampleWindow(fromMs, toMs, Constants.COUNT_OF_FRAMES_PER_INFERENCE, mInputTensorBuffer, 0)) {
+            return null;
+        }
 
         final long startTime = SystemClock.elapsedRealtime();
-        Tensor outputTensor = mModule.forward(IValue.from(inputTensor)).toTensor();
+        Tensor outputTensor = mModule.forward(IValue.from(mInputTensor)).toTensor();
         final long inferenceTime = SystemClock.elapsedRealtime() - startTime;
 
         final float[] scores = outputTensor.getDataAsFloatArray();
-        Integer scoresIdx[] = new Integer[scores.length];
-        for (int i = 0; i < scores.length; i++)
-            scoresIdx[i] = i;
-
-        Arrays.sort(scoresIdx, new Comparator<Integer>() {
-            @Override public int compare(final Integer o1, final Integer o2) {
-                return Float.compare(scores[o2], scores[o1]);
-            }
-        });
-
-        return new Pair<>(scoresIdx, inferenceTime);
+        return new Pair<>(scores, inferenceTime);
     }
 
     @Override
@@ -0,0 +1,151 @@
+package org.pytorch.demo.torchvideo;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.pytorch.IValue;
+import org.pytorch.Module;
+import org.pytorch.Tensor;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ Classifies every one-second window of a video file as fast as the device allows, for tagging
+ recorded videos rather than following playback.
+
+ A decoder thread samples the frames of the windows in order and converts them into a small
+ pool of model input buffers, while the calling thread runs the model on the windows already
+ filled, so decoding the next windows overlaps with inference on the current one. The frames
+ are converted on the decoder thread because a decoded frame is only valid until the decoder
+ gets its buffer back. The scores of all windows are returned in order and can be written to a
+ timeline file that playback reads instead of running the model.
+ */
+class OfflineVideoAnalyzer {
+    private static final String TAG = "OfflineVideoAnalyzer";
+    // windows decoded ahead of inference
+    private static final int INPUT_BUFFER_COUNT = 3;
+
+    static class WindowResult {
+        final int second;
+        final float[] scores;
+        final long inferenceTimeMs;
+
+        WindowResult(int second, float[] scores, long inferenceTimeMs) {
+            this.second = second;
+            this.scores = scores;
+            this.inferenceTimeMs = inferenceTimeMs;
+        }
+    }
+
+    private static class Window {
+        final FloatBuffer buffer;
+        final Tensor tensor;
+        int second;
+
+        Window(FloatBuffer buffer) {
+            this.buffer = buffer;
+            tensor = buffer == null ? null : Tensor.fromBlob(buffer,
+                    new long[]{1, 3, Constants.COUNT_OF_FRAMES_PER_INFERENCE, Constants.TARGET_VIDEO_SIZE, Constants.TARGET_VIDEO_SIZE});
+        }
+    }
+
+    // marks the end of the decoded windows
+    private static final Window END = new Window(null);
+
+    private final Module mModule;
+    private volatile boolean mCancelled;
+
+    OfflineVideoAnalyzer(Module module) {
+        mModule = module;
+    }
+
+    void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     Returns the scores of each second of the video from firstWindow on, fewer if the analysis
+     was cancelled or the video has fewer frames than its duration suggests.
+     */
+    List<WindowResult> analyze(Context context, Uri uri, double durationMs, int firstWindow) throws IOException, InterruptedException {
+        final int windowCount = (int) Math.ceil(durationMs / 1000);
+        if (firstWindow >= windowCount) {
+            return new ArrayList<>();
+        }
+        final VideoFrameSampler sampler = new VideoFrameSampler(context.getApplicationContext(), uri,
+                Constants.TARGET_VIDEO_SIZE, Constants.TARGET_VIDEO_SIZE);
+
+        final BlockingQueue<Window> free = new ArrayBlockingQueue<>(INPUT_BUFFER_COUNT);
+        final BlockingQueue<Window> filled = new ArrayBlockingQueue<>(INPUT_BUFFER_COUNT + 1);
+        for (int i = 0; i < INPUT_BUFFER_COUNT; i++) {
+            free.add(new Window(Tensor.allocateFloatBuffer(Constants.MODEL_INPUT_SIZE)));
+        }
+
+        final Thread decoder = new Thread(() -> {
+            try {
+                if (firstWindow > 0) {
+                    sampler.seekTo(firstWindow * 1000L * 1000);
+                }
+                for (int i = firstWindow; i < windowCount && !mCancelled; i++) {
+                    final int from = i * 1000;
+                    final int to = i == windowCount - 1 ? (int) Math.ceil(durationMs) : (i + 1) * 1000;
+                    final Window window = free.take();
+                    if (!sampler.sampleWindow(from, to, Constants.COUNT_OF_FRAMES_PER_INFERENCE, window.buffer, 0)) {
+                        break;
+                    }
+                    window.second = i;
+                    filled.put(window);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error decoding " + uri, e);
+            } finally {
+                sampler.close();
+                filled.add(END);
+            }
+        }, "VideoDecoder");
+        decoder.start();
+
+        final List<WindowResult> results = new ArrayList<>(windowCount - firstWindow);
+        try {
+            Window window;
+            while ((window = filled.take()) != END) {
+                final long startTime = SystemClock.elapsedRealtime();
+                final Tensor outputTensor = mModule.forward(IValue.from(window.tensor)).toTensor();
+                final long inferenceTime = SystemClock.elapsedRealtime() - startTime;
+                results.add(new WindowResult(window.second, outputTensor.getDataAsFloatArray(), inferenceTime));
+                free.put(window);
+            }
+        } finally {
+            // stops the decoder early if inference failed or this thread was interrupted
+            decoder.interrupt();
+            decoder.join();
+        }
+        return results;
+    }
+
+    /**
+     Writes one line per window: the second, its label and the inference time in milliseconds,
+     separated by tabs. labels.get(i) is the label of results.get(i).
+     */
+    static void writeTimeline(File file, List<WindowResult> results, List<String> labels) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            for (int i = 0; i < results.size(); i++) {
+                final WindowResult result = results.get(i);
+                writer.write(result.second + "\t" + labels.get(i) + "\t" + result.inferenceTimeMs);
+                writer.newLine();
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.pytorch.demo.torchvideo;
+
+import java.util.Arrays;
+
+/**
+ Aggregates the class scores of consecutive windows of a video, so labels do not flicker from
+ one window to the next and the whole video can be summarized.
+
+ For every class it keeps an exponential moving average of the scores, their mean over the last
+ windowLength windows and their mean over all windows so far. The dominant class follows the
+ moving average with hysteresis: it only switches when another class leads it by more than
+ switchMargin, and each switch is recorded as a change point. Everything is kept in primitive
+ arrays and an update costs O(classes). Not thread safe.
+ */
+class ScoreAggregator {
+    private final int mNumClasses;
+    private final float mAlpha;
+    private final int mWindowLength;
+    private final float mSwitchMargin;
+
+    private final float[] mMovingAverage;
+    private final float[] mWindowSum;
+    private final float[] mWindowMean;
+    // the scores of the last windowLength updates, one row per update in a ring
+    private final float[] mWindowScores;
+    private final double[] mTotalSum;
+    private final float[] mTotalMean;
+    private int mCount;
+
+    private int mDominantClass = -1;
+    // window index and new dominant class of each change point
+    private int[] mChangeWindows = new int[8];
+    private int[] mChangeClasses = new int[8];
+    private int mChangeCount;
+
+    ScoreAggregator(int numClasses, float alpha, int windowLength, float switchMargin) {
+        mNumClasses = numClasses;
+        mAlpha = alpha;
+        mWindowLength = windowLength;
+        mSwitchMargin = switchMargin;
+        mMovingAverage = new float[numClasses];
+        mWindowSum = new float[numClasses];
+        mWindowMean = new float[numClasses];
+        mWindowScores = new float[windowLength * numClasses];
+        mTotalSum = new double[numClasses];
+        mTotalMean = new float[numClasses];
+    }
+
+    void reset() {
+        mCount = 0;
+        mDominantClass = -1;
+        mChangeCount = 0;
+        Arrays.fill(mWindowSum, 0);
+        Arrays.fill(mTotalSum, 0);
+    }
+
+    /**
+     Adds the scores of the next window and returns true if the dominant class changed, which
+     includes the first window.
+     */
+    boolean update(float[] scores) {
+        if (scores.length < mNumClasses) {
+            throw new IllegalArgumentException("Expected " + mNumClasses + " scores, got " + scores.length);
+        }
+        final int row = (mCount % mWindowLength) * mNumClasses;
+        final boolean windowFull = mCount >= mWindowLength;
+        final int windowCount = windowFull ? mWindowLength : mCount + 1;
+        final float alpha = mCount == 0 ? 1 : mAlpha;
+        for (int c = 0; c < mNumClasses; c++) {
+            final float score = scores[c];
+            mMovingAverage[c] += alpha * (score - mMovingAverage[c]);
+
+            float windowSum = mWindowSum[c] + score;
+            if (windowFull) {
+                windowSum -= mWindowScores[row + c];
+            }
+            mWindowScores[row + c] = score;
+            mWindowSum[c] = windowSum;
+            mWindowMean[c] = windowSum / windowCount;
+
+            mTotalSum[c] += score;
+            mTotalMean[c] = (float) (mTotalSum[c] / (mCount + 1));
+        }
+        mCount++;
+
+        final int leader = TopK.argmax(mMovingAverage, 0, mNumClasses);
+        if (leader == mDominantClass) {
+            return false;
+        }
+        if (mDominantClass >= 0 && mMovingAverage[leader] - mMovingAverage[mDominantClass] <= mSwitchMargin) {
+            return false;
+        }
+        mDominantClass = leader;
+        addChangePoint(mCount - 1, leader);
+        return true;
+    }
+
+    private void addChangePoint(int window, int dominantClass) {
+        if (mChangeCount == mChangeWindows.length) {
+            mChangeWindows = Arrays.copyOf(mChangeWindows, 2 * mChangeCount);
+            mChangeClasses = Arrays.copyOf(mChangeClasses, 2 * mChangeCount);
+        }
+        mChangeWindows[mChangeCount] = window;
+        mChangeClasses[mChangeCount] = dominantClass;
+        mChangeCount++;
+    }
+
+    int getDominantClass() {
+        return mDominantClass;
+    }
+
+    // the arrays below are owned by the aggregator and change with every update
+
+    float[] getMovingAverage() {
+        return mMovingAverage;
+    }
+
+    float[] getWindowMean() {
+        return mWindowMean;
+    }
+
+    float[] getTotalMean() {
+        return mTotalMean;
+    }
+
+    /**
+     Indices of the k classes with the highest mean score over all windows, from high to low.
+     */
+    int[] getVideoTopK(int k) {
+        return TopK.topK(mTotalMean, k);
+    }
+
+    int getChangeCount() {
+        return mChangeCount;
+    }
+
+    // index of the window at which the change point happened
+    int getChangeWindow(int i) {
+        return mChangeWindows[i];
+    }
+
+    int getChangeClass(int i) {
+        return mChangeClasses[i];
+    }
+}
@@ -0,0 +1,174 @@
+package org.pytorch.demo.torchvideo;
+
+import android.content.Context;
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.net.Uri;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ Samples frames of a video at increasing timestamps by decoding it once from start to end,
+ instead of seeking and decoding from the previous key frame for every frame.
+
+ Each sample is the first decoded frame at or after the requested time, or the last frame of
+ the video for times past its end, and is written straight from the decoder's YUV output into a
+ tensor buffer by YuvTensorConverter, rotated as the video is displayed and center cropped.
+ Timestamps must not decrease from one call to the next, except after seekTo(). Not thread safe.
+ */
+class VideoFrameSampler implements AutoCloseable {
+    private static final long DEQUEUE_TIMEOUT_US = 10000;
+
+    private final MediaExtractor mExtractor = new MediaExtractor();
+    private final MediaCodec mDecoder;
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+    private final YuvTensorConverter mConverter;
+    private final long mDurationUs;
+    private final int mRotation;
+
+    private boolean mInputDone;
+    private boolean mOutputDone;
+    // the most recently decoded frame, kept until a later one replaces it
+    private int mFrameIndex = -1;
+    private long mFrameTimeUs = -1;
+
+    VideoFrameSampler(Context context, Uri uri, int outWidth, int outHeight) throws IOException {
+        mExtractor.setDataSource(context, uri, null);
+        MediaFormat format = null;
+        for (int i = 0; i < mExtractor.getTrackCount(); i++) {
+            final MediaFormat trackFormat = mExtractor.getTrackFormat(i);
+            final String mime = trackFormat.getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith("video/")) {
+                mExtractor.selectTrack(i);
+                format = trackFormat;
+                break;
+            }
+        }
+        if (format == null) {
+            mExtractor.release();
+            throw new IOException("No video track in " + uri);
+        }
+        mDurationUs = format.containsKey(MediaFormat.KEY_DURATION) ? format.getLong(MediaFormat.KEY_DURATION) : 0;
+        mRotation = format.containsKey(MediaFormat.KEY_ROTATION) ? format.getInteger(MediaFormat.KEY_ROTATION) : 0;
+
+        // flexible YUV lets the decoder output be read as an Image whatever its native layout
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible);
+        mDecoder = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+        mDecoder.configure(format, null, null, 0);
+        mDecoder.start();
+        mConverter = new YuvTensorConverter(outWidth, outHeight, YuvTensorConverter.ScaleMode.CENTER_CROP,
+                Constants.MEAN_RGB, Constants.STD_RGB);
+    }
+
+    long getDurationUs() {
+        return mDurationUs;
+    }
+
+    /**
+     Writes the frame shown at timeUs to outBuffer starting at outOffset and returns false if
+     the video has no frames at all.
+     */
+    boolean sample(long timeUs, FloatBuffer outBuffer, int outOffset) {
+        while (mFrameTimeUs < timeUs && !mOutputDone) {
+            decodeNextFrame();
+        }
+        if (mFrameIndex < 0) {
+            return false;
+        }
+        final Image image = mDecoder.getOutputImage(mFrameIndex);
+        if (image == null) {
+            return false;
+        }
+        try {
+            mConverter.convert(image, mRotation, outBuffer, outOffset);
+        } finally {
+            image.close();
+        }
+        return true;
+    }
+
+    /**
+     Writes frameCount frames spread evenly over [fromMs, toMs] to outBuffer, one after another
+     from outOffset, and returns false if the video has no frames at all.
+     */
+    boolean sampleWindow(int fromMs, int toMs, int frameCount, FloatBuffer outBuffer, int outOffset) {
+        final int frameSize = 3 * mConverter.getOutWidth() * mConverter.getOutHeight();
+        for (int i = 0; i < frameCount; i++) {
+            long timeUs = 1000 * (fromMs + (int) ((toMs - fromMs) * i / (frameCount - 1.)));
+            if (!sample(timeUs, outBuffer, outOffset + i * frameSize)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     Restarts decoding from the key frame before timeUs, after which frames from timeUs on can
+     be sampled without decoding everything before it.
+     */
+    void seekTo(long timeUs) {
+        if (mFrameIndex >= 0) {
+            mDecoder.releaseOutputBuffer(mFrameIndex, false);
+            mFrameIndex = -1;
+        }
+        mDecoder.flush();
+        mExtractor.seekTo(timeUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        mFrameTimeUs = -1;
+        mInputDone = false;
+        mOutputDone = false;
+    }
+
+    private void decodeNextFrame() {
+        while (!mOutputDone) {
+            if (!mInputDone) {
+                final int inputIndex = mDecoder.dequeueInputBuffer(DEQUEUE_TIMEOUT_US);
+                if (inputIndex >= 0) {
+                    final ByteBuffer input = mDecoder.getInputBuffer(inputIndex);
+                    final int size = mExtractor.readSampleData(input, 0);
+                    if (size < 0) {
+                        mDecoder.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                        mInputDone = true;
+                    } else {
+                        mDecoder.queueInputBuffer(inputIndex, 0, size, mExtractor.getSampleTime(), 0);
+                        mExtractor.advance();
+                    }
+                }
+            }
+
+            final int outputIndex = mDecoder.dequeueOutputBuffer(mBufferInfo, DEQUEUE_TIMEOUT_US);
+            if (outputIndex < 0) {
+                // no output yet, or a format or buffer change that getOutputImage already handles
+                continue;
+            }
+            if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                mOutputDone = true;
+            }
+            if (mBufferInfo.size == 0) {
+                mDecoder.releaseOutputBuffer(outputIndex, false);
+                continue;
+            }
+            if (mFrameIndex >= 0) {
+                mDecoder.releaseOutputBuffer(mFrameIndex, false);
+            }
+            mFrameIndex = outputIndex;
+            mFrameTimeUs = mBufferInfo.presentationTimeUs;
+            return;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (mFrameIndex >= 0) {
+            mDecoder.releaseOutputBuffer(mFrameIndex, false);
+            mFrameIndex = -1;
+        }
+        mDecoder.stop();
+        mDecoder.release();
+        mExtractor.release();
+    }
+}
@@ -0,0 +1,253 @@
+package org.pytorch.demo.torchvideo;
+
+import android.media.Image;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ Converts a YUV_420_888 camera image straight into a normalized float tensor buffer, in the
+ same CHW layout as TensorImageUtils.bitmapToFloatBuffer. Rotation by a multiple of 90 degrees,
+ resizing (stretch, letterbox or center crop) and mean/std normalization are applied in one
+ pass over the output pixels, sampling the planes through their row and pixel strides with
+ nearest-neighbour lookup. The per-row and per-column plane offsets are kept in lookup tables
+ that are only rebuilt when the frame geometry changes, so steady-state frames allocate nothing.
+
+ Instances are not thread safe; keep one per analyzer thread.
+ */
+class YuvTensorConverter {
+    enum ScaleMode {
+        // scale each axis independently to the output size
+        STRETCH,
+        // keep the aspect ratio and pad the borders
+        LETTERBOX,
+        // keep the aspect ratio and crop the overflowing side
+        CENTER_CROP
+    }
+
+    private final int mOutWidth;
+    private final int mOutHeight;
+    private final ScaleMode mScaleMode;
+    private final float[] mNormScale = new float[3];
+    private final float[] mNormOffset = new float[3];
+
+    // geometry the lookup tables were built for
+    private int mSrcWidth = -1;
+    private int mSrcHeight = -1;
+    private int mRotation = -1;
+    private int mYRowStride, mYPixelStride, mUvRowStride, mUvPixelStride;
+
+    private int mRotatedWidth, mRotatedHeight;
+    private float mScaleX, mScaleY, mPadX, mPadY;
+    // output pixels in [x0, x1) x [y0, y1) are sampled, the rest is padding
+    private int mContentX0, mContentX1, mContentY0, mContentY1;
+
+    private final int[] mColY;
+    private final int[] mColUv;
+    private final int[] mRowY;
+    private final int[] mRowUv;
+
+    YuvTensorConverter(int outWidth, int outHeight, ScaleMode scaleMode, float[] normMeanRGB, float[] normStdRGB) {
+        mOutWidth = outWidth;
+        mOutHeight = outHeight;
+        mScaleMode = scaleMode;
+        for (int c = 0; c < 3; c++) {
+            mNormScale[c] = 1.0f / (255.0f * normStdRGB[c]);
+            mNormOffset[c] = -normMeanRGB[c] / normStdRGB[c];
+        }
+        mColY = new int[outWidth];
+        mColUv = new int[outWidth];
+        mRowY = new int[outHeight];
+        mRowUv = new int[outHeight];
+    }
+
+    int getOutWidth() {
+        return mOutWidth;
+    }
+
+    int getOutHeight() {
+        return mOutHeight;
+    }
+
+    // size of the camera image after rotation, valid after the first convert call
+    int getRotatedWidth() {
+        return mRotatedWidth;
+    }
+
+    int getRotatedHeight() {
+        return mRotatedHeight;
+    }
+
+    // output pixels per rotated image pixel
+    float getScaleX() {
+        return mScaleX;
+    }
+
+    float getScaleY() {
+        return mScaleY;
+    }
+
+    // output position of the rotated image's top left corner, negative when cropping
+    float getPadX() {
+        return mPadX;
+    }
+
+    float getPadY() {
+        return mPadY;
+    }
+
+    /**
+     Writes 3 * outWidth * outHeight floats to outBuffer starting at outOffset.
+     */
+    void convert(Image image, int rotationDegrees, FloatBuffer outBuffer, int outOffset) {
+        final Image.Plane[] planes = image.getPlanes();
+        final ByteBuffer yBuffer = planes[0].getBuffer();
+        final ByteBuffer uBuffer = planes[1].getBuffer();
+        final ByteBuffer vBuffer = planes[2].getBuffer();
+        configure(image.getWidth(), image.getHeight(), rotationDegrees,
+                planes[0].getRowStride(), planes[0].getPixelStride(),
+                planes[1].getRowStride(), planes[1].getPixelStride());
+
+        final int planeSize = mOutWidth * mOutHeight;
+        final float scaleR = mNormScale[0], scaleG = mNormScale[1], scaleB = mNormScale[2];
+        final float offsetR = mNormOffset[0], offsetG = mNormOffset[1], offsetB = mNormOffset[2];
+
+        for (int oy = 0; oy < mOutHeight; oy++) {
+            final int base = outOffset + oy * mOutWidth;
+            if (oy < mContentY0 || oy >= mContentY1) {
+                fillPadding(outBuffer, base, 0, mOutWidth, planeSize);
+                continue;
+            }
+            fillPadding(outBuffer, base, 0, mContentX0, planeSize);
+            fillPadding(outBuffer, base, mContentX1, mOutWidth, planeSize);
+
+            final int rowY = mRowY[oy];
+            final int rowUv = mRowUv[oy];
+            for (int ox = mContentX0; ox < mContentX1; ox++) {
+                final int uvIndex = rowUv + mColUv[ox];
+                final float y = yBuffer.get(rowY + mColY[ox]) & 0xff;
+                final float u = (uBuffer.get(uvIndex) & 0xff) - 128;
+                final float v = (vBuffer.get(uvIndex) & 0xff) - 128;
+
+                final float r = clamp(y + 1.402f * v);
+                final float g = clamp(y - 0.344136f * u - 0.714136f * v);
+                final float b = clamp(y + 1.772f * u);
+
+                final int index = base + ox;
+                outBuffer.put(index, r * scaleR + offsetR);
+                outBuffer.put(index + planeSize, g * scaleG + offsetG);
+                outBuffer.put(index + 2 * planeSize, b * scaleB + offsetB);
+            }
+        }
+    }
+
+    private void fillPadding(FloatBuffer outBuffer, int base, int from, int to, int planeSize) {
+        for (int ox = from; ox < to; ox++) {
+            outBuffer.put(base + ox, mNormOffset[0]);
+            outBuffer.put(base + ox + planeSize, mNormOffset[1]);
+            outBuffer.put(base + ox + 2 * planeSize, mNormOffset[2]);
+        }
+    }
+
+    private static float clamp(float value) {
+        return value < 0.0f ? 0.0f : (value > 255.0f ? 255.0f : value);
+    }
+
+    private void configure(int srcWidth, int srcHeight, int rotationDegrees,
+                           int yRowStride, int yPixelStride, int uvRowStride, int uvPixelStride) {
+        final int rotation = ((rotationDegrees % 360) + 360) % 360;
+        if (rotation % 90 != 0) {
+            throw new IllegalArgumentException("Rotation must be a multiple of 90 degrees, got " + rotationDegrees);
+        }
+        if (srcWidth == mSrcWidth && srcHeight == mSrcHeight && rotation == mRotation
+                && yRowStride == mYRowStride && yPixelStride == mYPixelStride
+                && uvRowStride == mUvRowStride && uvPixelStride == mUvPixelStride) {
+            return;
+        }
+        mSrcWidth = srcWidth;
+        mSrcHeight = srcHeight;
+        mRotation = rotation;
+        mYRowStride = yRowStride;
+        mYPixelStride = yPixelStride;
+        mUvRowStride = uvRowStride;
+        mUvPixelStride = uvPixelStride;
+
+        final boolean swapAxes = rotation == 90 || rotation == 270;
+        mRotatedWidth = swapAxes ? srcHeight : srcWidth;
+        mRotatedHeight = swapAxes ? srcWidth : srcHeight;
+
+        final float fitX = (float)mOutWidth / mRotatedWidth;
+        final float fitY = (float)mOutHeight / mRotatedHeight;
+        switch (mScaleMode) {
+            case LETTERBOX:
+                mScaleX = mScaleY = Math.min(fitX, fitY);
+                break;
+            case CENTER_CROP:
+                mScaleX = mScaleY = Math.max(fitX, fitY);
+                break;
+            default:
+                mScaleX = fitX;
+                mScaleY = fitY;
+                break;
+        }
+        mPadX = (mOutWidth - mRotatedWidth * mScaleX) / 2;
+        mPadY = (mOutHeight - mRotatedHeight * mScaleY) / 2;
+
+        mContentX0 = mOutWidth;
+        mContentX1 = 0;
+        for (int ox = 0; ox < mOutWidth; ox++) {
+            final int rx = (int)Math.floor((ox + 0.5f - mPadX) / mScaleX);
+            if (rx < 0 || rx >= mRotatedWidth) continue;
+            mContentX0 = Math.min(mContentX0, ox);
+            mContentX1 = ox + 1;
+            // the output column selects the source x for 0/180 degrees and the source y otherwise
+            switch (rotation) {
+                case 0:
+                    setColumn(ox, rx, false);
+                    break;
+                case 90:
+                    setColumn(ox, srcHeight - 1 - rx, true);
+                    break;
+                case 180:
+                    setColumn(ox, srcWidth - 1 - rx, false);
+                    break;
+                default:
+                    setColumn(ox, rx, true);
+                    break;
+            }
+        }
+
+        mContentY0 = mOutHeight;
+        mContentY1 = 0;
+        for (int oy = 0; oy < mOutHeight; oy++) {
+            final int ry = (int)Math.floor((oy + 0.5f - mPadY) / mScaleY);
+            if (ry < 0 || ry >= mRotatedHeight) continue;
+            mContentY0 = Math.min(mContentY0, oy);
+            mContentY1 = oy + 1;
+            switch (rotation) {
+                case 0:
+                    setRow(oy, ry, true);
+                    break;
+                case 90:
+                    setRow(oy, ry, false);
+                    break;
+                case 180:
+                    setRow(oy, srcHeight - 1 - ry, true);
+                    break;
+                default:
+                    setRow(oy, srcWidth - 1 - ry, false);
+                    break;
+            }
+        }
+    }
+
+    private void setColumn(int ox, int src, boolean isSourceY) {
+        mColY[ox] = isSourceY ? src * mYRowStride : src * mYPixelStride;
+        mColUv[ox] = isSourceY ? (src >> 1) * mUvRowStride : (src >> 1) * mUvPixelStride;
+    }
+
+    private void setRow(int oy, int src, boolean isSourceY) {
+        mRowY[oy] = isSourceY ? src * mYRowStride : src * mYPixelStride;
+        mRowUv[oy] = isSourceY ? (src >> 1) * mUvRowStride : (src >> 1) * mUvPixelStride;
+    }
+}
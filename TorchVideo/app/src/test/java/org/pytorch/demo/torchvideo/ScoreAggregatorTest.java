@@ -0,0 +1,125 @@
+package org.pytorch.demo.torchvideo;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ Checks the window and total means of ScoreAggregator against means computed directly, and how
+ the dominant class switches, is recorded and starts over on reset().
+ */
+public class ScoreAggregatorTest {
+    private static final float EPSILON = 1e-5f;
+
+    @Test
+    public void windowAndTotalMeansMatchDirectMeans() {
+        final int numClasses = 4;
+        final int windowLength = 3;
+        final ScoreAggregator aggregator = new ScoreAggregator(numClasses, 0.5f, windowLength, 0.1f);
+        final Random random = new Random(1);
+        final float[][] history = new float[20][];
+        for (int n = 0; n < history.length; n++) {
+            history[n] = new float[numClasses];
+            for (int c = 0; c < numClasses; c++) {
+                history[n][c] = random.nextFloat();
+            }
+            aggregator.update(history[n]);
+
+            for (int c = 0; c < numClasses; c++) {
+                double window = 0;
+                double total = 0;
+                for (int m = 0; m <= n; m++) {
+                    if (m > n - windowLength) window += history[m][c];
+                    total += history[m][c];
+                }
+                assertEquals(window / Math.min(n + 1, windowLength), aggregator.getWindowMean()[c], EPSILON);
+                assertEquals(total / (n + 1), aggregator.getTotalMean()[c], EPSILON);
+            }
+        }
+    }
+
+    @Test
+    public void movingAverageStartsAtFirstScores() {
+        final ScoreAggregator aggregator = new ScoreAggregator(2, 0.25f, 4, 0.1f);
+        aggregator.update(new float[] {1, 0});
+        assertArrayEquals(new float[] {1, 0}, aggregator.getMovingAverage(), EPSILON);
+        aggregator.update(new float[] {0, 1});
+        assertArrayEquals(new float[] {0.75f, 0.25f}, aggregator.getMovingAverage(), EPSILON);
+    }
+
+    @Test
+    public void switchesOnlyWhenLeadingByMoreThanMargin() {
+        final ScoreAggregator aggregator = new ScoreAggregator(2, 1, 4, 0.2f);
+        assertTrue(aggregator.update(new float[] {0.6f, 0.4f}));
+        assertEquals(0, aggregator.getDominantClass());
+
+        // class 1 leads, but only by 0.1
+        assertFalse(aggregator.update(new float[] {0.45f, 0.55f}));
+        assertEquals(0, aggregator.getDominantClass());
+
+        assertTrue(aggregator.update(new float[] {0.3f, 0.7f}));
+        assertEquals(1, aggregator.getDominantClass());
+
+        assertFalse(aggregator.update(new float[] {0.35f, 0.65f}));
+        assertTrue(aggregator.update(new float[] {0.9f, 0.1f}));
+        assertEquals(0, aggregator.getDominantClass());
+
+        assertEquals(3, aggregator.getChangeCount());
+        assertEquals(0, aggregator.getChangeWindow(0));
+        assertEquals(0, aggregator.getChangeClass(0));
+        assertEquals(2, aggregator.getChangeWindow(1));
+        assertEquals(1, aggregator.getChangeClass(1));
+        assertEquals(4, aggregator.getChangeWindow(2));
+        assertEquals(0, aggregator.getChangeClass(2));
+    }
+
+    @Test
+    public void recordsManyChangePoints() {
+        final ScoreAggregator aggregator = new ScoreAggregator(2, 1, 2, 0);
+        for (int n = 0; n < 50; n++) {
+            assertTrue(aggregator.update(n % 2 == 0 ? new float[] {1, 0} : new float[] {0, 1}));
+        }
+        assertEquals(50, aggregator.getChangeCount());
+        assertEquals(49, aggregator.getChangeWindow(49));
+        assertEquals(1, aggregator.getChangeClass(49));
+    }
+
+    @Test
+    public void videoTopKRanksTotalMeans() {
+        final ScoreAggregator aggregator = new ScoreAggregator(3, 0.5f, 1, 0.1f);
+        aggregator.update(new float[] {0.1f, 0.5f, 0.4f});
+        aggregator.update(new float[] {0.1f, 0.1f, 0.8f});
+        assertArrayEquals(new int[] {2, 1}, aggregator.getVideoTopK(2));
+        // the window holds only the last scores
+        assertArrayEquals(new float[] {0.1f, 0.1f, 0.8f}, aggregator.getWindowMean(), EPSILON);
+    }
+
+    @Test
+    public void resetStartsOver() {
+        final ScoreAggregator aggregator = new ScoreAggregator(2, 0.5f, 2, 0.1f);
+        aggregator.update(new float[] {1, 0});
+        aggregator.update(new float[] {1, 0});
+        aggregator.update(new float[] {0.8f, 0.2f});
+        aggregator.reset();
+        assertEquals(-1, aggregator.getDominantClass());
+        assertEquals(0, aggregator.getChangeCount());
+
+        assertTrue(aggregator.update(new float[] {0.2f, 0.8f}));
+        assertEquals(1, aggregator.getDominantClass());
+        assertArrayEquals(new float[] {0.2f, 0.8f}, aggregator.getMovingAverage(), EPSILON);
+        assertArrayEquals(new float[] {0.2f, 0.8f}, aggregator.getWindowMean(), EPSILON);
+        assertArrayEquals(new float[] {0.2f, 0.8f}, aggregator.getTotalMean(), EPSILON);
+        assertEquals(1, aggregator.getChangeCount());
+        assertEquals(0, aggregator.getChangeWindow(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooFewScores() {
+        new ScoreAggregator(3, 0.5f, 2, 0.1f).update(new float[2]);
+    }
+}
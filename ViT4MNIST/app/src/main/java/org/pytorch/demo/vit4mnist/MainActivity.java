@@ -113,21 +113,7 @@ public class MainActivity extends AppCompatActivity implements Runnable {
         final Tensor outTensor = mModule.forward(IValue.from(inTensor)).toTensor();
         final float[] outputs = outTensor.getDataAsFloatArray();
 
-        float sum = 0.0f;
-        for (float val : outputs)
-            sum += Math.exp(val);
-        for (int i = 0; i < outputs.length; i++)
-            outputs[i] = (float)(Math.exp(outputs[i]) / sum);
-
-        float maxScore = -Float.MAX_VALUE;
-        int maxScoreIdx = -1;
-        for (int i = 0; i < outputs.length; i++) {
-            if (outputs[i] > maxScore) {
-                maxScore = outputs[i];
-                maxScoreIdx = i;
-            }
-        }
-
-        return maxScoreIdx;
+        // softmax keeps the order of the logits, so the argmax can be taken on them directly
+        return TopK.argmax(outputs);
     }
 }
\ No newline at end of file